@@ -67,14 +67,16 @@ public class CachedPersistentHashMap<Key, Value> extends PersistentHashMap<Key,
 
   @Nullable
   protected Value doGet(Key key) throws IOException {
-    Value value = myCache.get(key);
-    if (value == null) {
-      value = super.doGet(key);
-      if (value != null) {
-        myCache.put(key, value);
+    synchronized (myEnumerator) {
+      Value value = myCache.get(key);
+      if (value == null) {
+        value = super.doGet(key);
+        if (value != null) {
+          myCache.put(key, value);
+        }
       }
+      return value;
     }
-    return value;
   }
 
   @Override
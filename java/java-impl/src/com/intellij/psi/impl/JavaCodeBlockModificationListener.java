@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -83,6 +83,9 @@ public class JavaCodeBlockModificationListener implements PsiTreeChangePreproces
       if (containsClassesInside(child1) || child2 != child1 && containsClassesInside(child2)) {
         myModificationTracker.incCounter();
       }
+      else {
+        myModificationTracker.codeBlockChanged(parent == null ? null : parent.getContainingFile());
+      }
     }
     catch (PsiInvalidElementAccessException e) {
       myModificationTracker.incCounter(); // Shall not happen actually, just a pre-release paranoia
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -248,7 +248,7 @@ public class TypeInfo {
       LOG.assertTrue(annotations.size() < 256, annotations.size());
       dataStream.writeByte(annotations.size());
       for (PsiAnnotationStub annotation : annotations) {
-        dataStream.writeUTFFast(annotation.getText());
+        JavaStubElementTypes.ANNOTATION.serialize(annotation, dataStream);
       }
     }
   }
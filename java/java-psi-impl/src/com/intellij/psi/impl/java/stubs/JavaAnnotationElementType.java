@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -65,12 +65,12 @@ public class JavaAnnotationElementType extends JavaStubElementType<PsiAnnotation
 
   @Override
   public void serialize(final PsiAnnotationStub stub, final StubOutputStream dataStream) throws IOException {
-    dataStream.writeUTFFast(stub.getText());
+    dataStream.writeName(stub.getText());
   }
 
   @Override
   public PsiAnnotationStub deserialize(final StubInputStream dataStream, final StubElement parentStub) throws IOException {
-    return new PsiAnnotationStubImpl(parentStub, dataStream.readUTFFast());
+    return new PsiAnnotationStubImpl(parentStub, dataStream.readNameString());
   }
 
   @Override
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -25,6 +25,8 @@ import com.intellij.openapi.application.ex.PathManagerEx;
 import com.intellij.openapi.extensions.ExtensionPoint;
 import com.intellij.openapi.extensions.Extensions;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.impl.source.tree.injected.JavaConcatenationInjectorManager;
 import com.intellij.testFramework.PlatformTestUtil;
@@ -32,6 +34,7 @@ import com.intellij.testFramework.fixtures.impl.CodeInsightTestFixtureImpl;
 import com.intellij.util.ThrowableRunnable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class LightAdvHighlightingPerformanceTest extends LightDaemonAnalyzerTestCase {
@@ -117,6 +120,30 @@ public class LightAdvHighlightingPerformanceTest extends LightDaemonAnalyzerTest
     }
   }
 
+  public void testParallelVisitorsHighlightTheSameAsSequential() throws Exception {
+    configureByFile(LightAdvHighlightingTest.BASE_PATH + "/aThinlet.java");
+    RegistryValue parallel = Registry.get("daemon.highlight.visitors.in.parallel");
+    try {
+      parallel.setValue(false);
+      List<String> sequential = describe(doHighlighting());
+      parallel.setValue(true);
+      DaemonCodeAnalyzer.getInstance(getProject()).restart();
+      assertEquals(sequential, describe(doHighlighting()));
+    }
+    finally {
+      parallel.resetToDefault();
+    }
+  }
+
+  private static List<String> describe(List<HighlightInfo> infos) {
+    List<String> result = new ArrayList<String>(infos.size());
+    for (HighlightInfo info : infos) {
+      result.add(info.getSeverity() + " " + info.getStartOffset() + "-" + info.getEndOffset() + " " + info.getDescription());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
   public void testAClassLoader() throws Exception {
     List<HighlightInfo> errors = doTest(Math.max(1000, 10000 - JobSchedulerImpl.CORES_COUNT * 1000));
     if (173 != errors.size()) {
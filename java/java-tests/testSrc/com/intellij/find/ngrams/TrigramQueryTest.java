@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import gnu.trove.TIntIterator;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class TrigramQueryTest extends TestCase {
+  public void testLiteral() {
+    assertBranches(TrigramQuery.forLiteral("xyzzyPlugh"), "xyzzyPlugh");
+    assertNull(TrigramQuery.forLiteral("ab"));
+  }
+
+  public void testPlainRegExp() {
+    assertBranches(TrigramQuery.forRegExp("xyzzyPlugh"), "xyzzyPlugh");
+    assertBranches(TrigramQuery.forRegExp("(?i)xyzzyPlugh"), "xyzzyPlugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\.Plugh"), "xyzzy.Plugh");
+  }
+
+  public void testQuantifiers() {
+    assertBranches(TrigramQuery.forRegExp("xyzzyx?Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzyx*Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzyx{0,2}Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzyx+Plugh"), "xyzzyx|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\w+Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy.*Plugh"), "xyzzy|Plugh");
+  }
+
+  public void testEscapesWithArguments() {
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\x41Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\x{1F600}Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\u0041Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\0101Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\07Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\cAPlugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\k<name>Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\p{Alpha}Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy\\pLPlugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("(a)xyzzy\\1123Plugh"), "xyzzy|Plugh");
+
+    assertNull(TrigramQuery.forRegExp("xyzzyPlugh\\x4"));
+    assertNull(TrigramQuery.forRegExp("xyzzyPlugh\\u00g1"));
+    assertNull(TrigramQuery.forRegExp("xyzzyPlugh\\08"));
+    assertNull(TrigramQuery.forRegExp("xyzzyPlugh\\k<name"));
+    assertNull(TrigramQuery.forRegExp("xyzzyPlugh\\c"));
+  }
+
+  public void testClassesAndGroups() {
+    assertBranches(TrigramQuery.forRegExp("xyzzy[a-z|(]Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("xyzzy(All|Any)?Plugh"), "xyzzy|Plugh");
+    assertBranches(TrigramQuery.forRegExp("^xyzzy(x)Plugh$"), "xyzzy|Plugh");
+  }
+
+  public void testAlternatives() {
+    List<Set<Integer>> branches = TrigramQuery.forRegExp("xyzzyPlugh|xyzzyFrob").getBranches();
+    assertEquals(2, branches.size());
+    assertEquals(trigrams("xyzzyPlugh"), branches.get(0));
+    assertEquals(trigrams("xyzzyFrob"), branches.get(1));
+
+    assertNull(TrigramQuery.forRegExp("xyzzyPlugh|ab"));
+  }
+
+  public void testUnsupported() {
+    assertNull(TrigramQuery.forRegExp(".*"));
+    assertNull(TrigramQuery.forRegExp("a.b.c"));
+    assertNull(TrigramQuery.forRegExp("\\QxyzzyPlugh\\E"));
+    assertNull(TrigramQuery.forRegExp("(?x)xyzzy Plugh"));
+    assertNull(TrigramQuery.forRegExp("xyzzyPlugh)"));
+  }
+
+  private static void assertBranches(TrigramQuery query, String literals) {
+    assertNotNull(query);
+    assertEquals(1, query.getBranches().size());
+    Set<Integer> expected = new HashSet<Integer>();
+    for (String literal : literals.split("\\|")) {
+      expected.addAll(trigrams(literal));
+    }
+    assertEquals(expected, query.getBranches().get(0));
+  }
+
+  private static Set<Integer> trigrams(String text) {
+    Set<Integer> result = new HashSet<Integer>();
+    for (TIntIterator it = TrigramBuilder.buildTrigram(text).iterator(); it.hasNext(); ) {
+      result.add(it.next());
+    }
+    return result;
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -27,13 +27,16 @@ import com.intellij.psi.tree.TokenSet;
 import com.intellij.util.ArrayFactory;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.SmartList;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collections;
 import java.util.List;
 
 public abstract class StubBase<T extends PsiElement> extends ObjectStubBase<StubElement> implements StubElement<T> {
-  private SmartList<StubElement> myChildren = null;
+  // the SmartList<StubElement> of the children of a stub being built or the StubList of the complete tree the stub is a part of
+  private Object myChildren = null;
+  private int myStubListIndex;
   private final IStubElementType myElementType;
   private volatile T myPsi;
 
@@ -42,12 +45,43 @@ public abstract class StubBase<T extends PsiElement> extends ObjectStubBase<Stub
     super(parent);
     myElementType = elementType;
     if (parent != null) {
-      if (((StubBase)parent).myChildren == null)
-        ((StubBase)parent).myChildren = new SmartList<StubElement>();
-      ((StubBase)parent).myChildren.add(this);
+      ((StubBase)parent).addChild(this);
     }
   }
 
+  @SuppressWarnings("unchecked")
+  private void addChild(StubElement child) {
+    final Object children = myChildren;
+    if (children instanceof SmartList) {
+      ((SmartList<StubElement>)children).add(child);
+    }
+    else {
+      final SmartList<StubElement> list =
+        children == null ? new SmartList<StubElement>() : new SmartList<StubElement>(((StubList)children).getChildren(myStubListIndex));
+      list.add(child);
+      myChildren = list;
+    }
+  }
+
+  void setStubList(@NotNull StubList stubList, int index) {
+    myStubListIndex = index;
+    myChildren = stubList;
+  }
+
+  private int getChildCount() {
+    final Object children = myChildren;
+    if (children == null) return 0;
+    if (children instanceof StubList) return ((StubList)children).getChildCount(myStubListIndex);
+    return ((SmartList)children).size();
+  }
+
+  @SuppressWarnings("unchecked")
+  private StubElement getChild(int index) {
+    final Object children = myChildren;
+    if (children instanceof StubList) return ((StubList)children).getChild(myStubListIndex, index);
+    return ((SmartList<StubElement>)children).get(index);
+  }
+
   @Override
   public StubElement getParentStub() {
     return myParent;
@@ -56,21 +90,18 @@ public abstract class StubBase<T extends PsiElement> extends ObjectStubBase<Stub
   @Override
   @SuppressWarnings("unchecked")
   public List<StubElement> getChildrenStubs() {
-    if (myChildren == null)
-      return Collections.emptyList();
-
-    return myChildren;
+    final Object children = myChildren;
+    if (children == null) return Collections.emptyList();
+    if (children instanceof StubList) return ((StubList)children).getChildren(myStubListIndex);
+    return (SmartList<StubElement>)children;
   }
 
   @Override
   @Nullable
   public <P extends PsiElement> StubElement<P> findChildStubByType(final IStubElementType<?, P> elementType) {
-    final List<StubElement> childrenStubs = getChildrenStubs();
-    final int size = childrenStubs.size();
-
-    //noinspection ForLoopReplaceableByForEach
+    final int size = getChildCount();
     for (int i = 0; i < size; ++i) {
-      final StubElement childStub = childrenStubs.get(i);
+      final StubElement childStub = getChild(i);
       if (childStub.getStubType() == elementType) {
         return childStub;
       }
@@ -136,10 +167,8 @@ public abstract class StubBase<T extends PsiElement> extends ObjectStubBase<Stub
 
   private int countChildren(final IElementType elementType) {
     int count = 0;
-    List<StubElement> childrenStubs = getChildrenStubs();
-    //noinspection ForLoopReplaceableByForEach
-    for (int i = 0, childrenStubsSize = childrenStubs.size(); i < childrenStubsSize; i++) {
-      StubElement childStub = childrenStubs.get(i);
+    for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+      StubElement childStub = getChild(i);
       if (childStub.getStubType() == elementType) count++;
     }
 
@@ -148,10 +177,8 @@ public abstract class StubBase<T extends PsiElement> extends ObjectStubBase<Stub
 
   private int countChildren(final TokenSet types) {
     int count = 0;
-    List<StubElement> childrenStubs = getChildrenStubs();
-    //noinspection ForLoopReplaceableByForEach
-    for (int i = 0, childrenStubsSize = childrenStubs.size(); i < childrenStubsSize; i++) {
-      StubElement childStub = childrenStubs.get(i);
+    for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+      StubElement childStub = getChild(i);
       if (types.contains(childStub.getStubType())) count++;
     }
 
@@ -160,7 +187,8 @@ public abstract class StubBase<T extends PsiElement> extends ObjectStubBase<Stub
 
   private <E extends PsiElement> void fillFilteredChildren(IElementType type, E[] result) {
     int count = 0;
-    for (StubElement childStub : getChildrenStubs()) {
+    for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+      StubElement childStub = getChild(i);
       if (childStub.getStubType() == type) {
         //noinspection unchecked
         result[count++] = (E)childStub.getPsi();
@@ -172,7 +200,8 @@ public abstract class StubBase<T extends PsiElement> extends ObjectStubBase<Stub
 
   private <E extends PsiElement> void fillFilteredChildren(TokenSet set, E[] result) {
     int count = 0;
-    for (StubElement childStub : getChildrenStubs()) {
+    for (int i = 0, childCount = getChildCount(); i < childCount; i++) {
+      StubElement childStub = getChild(i);
       if (set.contains(childStub.getStubType())) {
         //noinspection unchecked
         result[count++] = (E)childStub.getPsi();
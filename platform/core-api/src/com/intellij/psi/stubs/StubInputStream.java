@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,7 @@
 package com.intellij.psi.stubs;
 
 import com.intellij.util.io.*;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -42,6 +43,14 @@ public class StubInputStream extends DataInputStream {
     return DataInputOutputUtil.readNAME(this, myNameStorage);
   }
 
+  /**
+   * Reads a string written by {@link StubOutputStream#writeName(String)} without wrapping it into a {@link StringRef}.
+   */
+  @Nullable
+  public String readNameString() throws IOException {
+    return myNameStorage.valueOf(DataInputOutputUtil.readINT(this));
+  }
+
   public int readVarInt() throws IOException {
     return DataInputOutputUtil.readINT(this);
   }
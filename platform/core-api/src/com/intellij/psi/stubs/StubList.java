@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.stubs;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Structure of a complete stub tree kept in flat arrays: the stubs in the depth-first order (i.e. indexed by {@link ObjectStubBase#id})
+ * and the ids of the children of every stub stored in a single int array. Stubs of the tree refer to it instead of keeping
+ * their own lists of children, so the structure of the tree costs two ints per stub. Every stub keeps its index in the list,
+ * because its id is reassigned when a tree is built on its stubs again.
+ */
+final class StubList {
+  private final StubElement[] myStubs;
+  private final int[] myChildrenStart; // children of the stub i are at [myChildrenStart[i], myChildrenStart[i + 1]) in myChildIds
+  private final int[] myChildIds;
+
+  private StubList(@NotNull StubElement[] stubs, @NotNull int[] childrenStart, @NotNull int[] childIds) {
+    myStubs = stubs;
+    myChildrenStart = childrenStart;
+    myChildIds = childIds;
+  }
+
+  /**
+   * Switches the stubs of the given enumerated tree to the flat representation.
+   *
+   * @param plainList all stubs of the tree, in the order of their ids
+   * @return the stubs of the tree or <code>null</code> if the tree can't be represented this way (not all of its stubs are {@link StubBase})
+   */
+  @Nullable
+  static List<? extends Stub> compact(@NotNull List<? extends Stub> plainList) {
+    final int size = plainList.size();
+    final StubElement[] stubs = new StubElement[size];
+    int childCount = 0;
+    for (int i = 0; i < size; i++) {
+      Stub stub = plainList.get(i);
+      if (!(stub instanceof StubBase) || ((StubBase)stub).id != i) return null;
+      stubs[i] = (StubElement)stub;
+      childCount += stub.getChildrenStubs().size();
+    }
+
+    final int[] childrenStart = new int[size + 1];
+    final int[] childIds = new int[childCount];
+    int index = 0;
+    for (int i = 0; i < size; i++) {
+      childrenStart[i] = index;
+      List<? extends Stub> children = stubs[i].getChildrenStubs();
+      //noinspection ForLoopReplaceableByForEach
+      for (int j = 0, childrenSize = children.size(); j < childrenSize; j++) {
+        childIds[index++] = ((ObjectStubBase)children.get(j)).id;
+      }
+    }
+    childrenStart[size] = index;
+
+    StubList list = new StubList(stubs, childrenStart, childIds);
+    for (int i = 0; i < size; i++) {
+      ((StubBase)stubs[i]).setStubList(list, i);
+    }
+    return Arrays.asList(stubs);
+  }
+
+  int getChildCount(int id) {
+    return myChildrenStart[id + 1] - myChildrenStart[id];
+  }
+
+  @NotNull
+  StubElement getChild(int id, int index) {
+    return myStubs[myChildIds[myChildrenStart[id] + index]];
+  }
+
+  @NotNull
+  List<StubElement> getChildren(final int id) {
+    final int count = getChildCount(id);
+    return count == 0 ? Collections.<StubElement>emptyList() : new ChildrenList(id, count);
+  }
+
+  private class ChildrenList extends AbstractList<StubElement> implements RandomAccess {
+    private final int myId;
+    private final int mySize;
+
+    private ChildrenList(int id, int size) {
+      myId = id;
+      mySize = size;
+    }
+
+    @Override
+    public StubElement get(int index) {
+      if (index < 0 || index >= mySize) throw new IndexOutOfBoundsException("index: " + index + ", size: " + mySize);
+      return getChild(myId, index);
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+  }
+}
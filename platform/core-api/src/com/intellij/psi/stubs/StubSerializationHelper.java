@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -161,12 +161,10 @@ public class StubSerializationHelper {
     final int size = DataInputOutputUtil.readINT(inputStream);
     byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
 
-    int i = 1;
-    while(i <= size) {
-      String s = myStringInterner.get(IOUtil.readUTFFast(buffer, inputStream));
-      storage.myStrings.add(s);
-      storage.myEnumerates.put(s, i);
-      ++i;
+    // the table is only read from, no need to fill in the reverse mapping
+    storage.myStrings.ensureCapacity(size);
+    for (int i = 0; i < size; i++) {
+      storage.myStrings.add(myStringInterner.get(IOUtil.readUTFFast(buffer, inputStream)));
     }
     return deserialize(inputStream, null);
   }
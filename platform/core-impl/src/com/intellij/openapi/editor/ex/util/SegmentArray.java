@@ -23,12 +23,20 @@ import org.jetbrains.annotations.NotNull;
  * {@code 'index <-> (start; end)'} and provides convenient way for working with them, e.g. find index by particular offset that
  * belongs to target <code>(start; end)</code> segment etc.
  * <p/>
+ * Offset shifts are applied lazily: segments starting from {@link #myShiftIndex} are stored without the pending
+ * {@link #myShiftDelta}, and the boundary is moved only when another index is shifted. So the shift caused by typing
+ * at the same place of a large document takes time proportional to the distance from the previous edit rather than
+ * to the number of the following segments.
+ * <p/>
  * Not thread-safe.
  */
 public class SegmentArray {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.ex.util.SegmentArray");
   private int[] myStarts;
   private int[] myEnds;
+  // segments with indices >= myShiftIndex are to be shifted by myShiftDelta
+  private int myShiftIndex = 0;
+  private int myShiftDelta = 0;
 
   protected int mySegmentCount = 0;
   protected static final int INITIAL_SIZE = 64;
@@ -50,18 +58,60 @@ public class SegmentArray {
       mySegmentCount = i + 1;
     }
 
+    int delta = pendingShift(i);
     myStarts = reallocateArray(myStarts, i);
-    myStarts[i] = startOffset;
+    myStarts[i] = startOffset - delta;
 
     myEnds = reallocateArray(myEnds, i);
-    myEnds[i] = endOffset;
+    myEnds[i] = endOffset - delta;
   }
 
   protected void replace(int startOffset, @NotNull SegmentArray data, int len) {
+    data.flushShift();
+    moveShiftIndex(startOffset + len);
     System.arraycopy(data.myStarts, 0, myStarts, startOffset, len);
     System.arraycopy(data.myEnds, 0, myEnds, startOffset, len);
   }
 
+  private int pendingShift(int index) {
+    return index >= myShiftIndex ? myShiftDelta : 0;
+  }
+
+  /**
+   * Applies the pending shift to the segments between the current and the given boundary.
+   */
+  private void moveShiftIndex(int index) {
+    if (index > mySegmentCount) index = mySegmentCount;
+    if (myShiftDelta == 0 || index == myShiftIndex) {
+      myShiftIndex = index;
+      return;
+    }
+    if (index > myShiftIndex) {
+      applyShift(myShiftIndex, index, myShiftDelta);
+    }
+    else if (myShiftIndex - index < mySegmentCount - myShiftIndex) {
+      applyShift(index, myShiftIndex, -myShiftDelta);
+    }
+    else {
+      // it's cheaper to apply the pending shift to the tail and start from scratch
+      applyShift(myShiftIndex, mySegmentCount, myShiftDelta);
+      myShiftDelta = 0;
+    }
+    myShiftIndex = index;
+  }
+
+  private void applyShift(int startIndex, int endIndex, int shift) {
+    for (int i = startIndex; i < endIndex; i++) {
+      myStarts[i] += shift;
+      myEnds[i] += shift;
+    }
+  }
+
+  private void flushShift() {
+    moveShiftIndex(mySegmentCount);
+    myShiftDelta = 0;
+  }
+
   static int calcCapacity(int currentArraySize, int index) {
     if (currentArraySize == 0) {
       currentArraySize = 16;
@@ -104,10 +154,11 @@ public class SegmentArray {
 
     while (start < end) {
       int i = (start + end) / 2;
-      if (offset < myStarts[i]) {
+      int delta = pendingShift(i);
+      if (offset < myStarts[i] + delta) {
         end = i - 1;
       }
-      else if (offset >= myEnds[i]) {
+      else if (offset >= myEnds[i] + delta) {
         start = i + 1;
       }
       else {
@@ -116,13 +167,13 @@ public class SegmentArray {
     }
 
     // This means that there is a gap at given offset
-    assert myStarts[start] <= offset && offset < myEnds[start] : start;
+    assert getSegmentStart(start) <= offset && offset < getSegmentEnd(start) : start;
 
     return start;
   }
 
   public int getLastValidOffset() {
-    return mySegmentCount == 0 ? 0 : myEnds[mySegmentCount - 1];
+    return mySegmentCount == 0 ? 0 : myEnds[mySegmentCount - 1] + pendingShift(mySegmentCount - 1);
   }
 
   public final void changeSegmentLength(int startIndex, int change) {
@@ -133,23 +184,29 @@ public class SegmentArray {
   }
 
   public final void shiftSegments(int startIndex, int shift) {
-    for (int i = startIndex; i < mySegmentCount; i++) {
-      myStarts[i] += shift;
-      myEnds[i] += shift;
-      if (myStarts[i] < 0 || myEnds[i] < 0) {
-        LOG.error("Error shifting segments: myStarts[" + i + "] = " + myStarts[i] + ", myEnds[" + i + "] = " + myEnds[i]);
-      }
+    if (startIndex < 0) startIndex = 0;
+    if (startIndex >= mySegmentCount || shift == 0) return;
+    moveShiftIndex(startIndex);
+    myShiftDelta += shift;
+    // segments are sorted, so it's enough to check the first shifted one
+    if (getSegmentStart(startIndex) < 0) {
+      LOG.error("Error shifting segments: start[" + startIndex + "] = " + getSegmentStart(startIndex) + ", end[" + startIndex + "] = " +
+                getSegmentEnd(startIndex));
     }
   }
 
   public void removeAll() {
     mySegmentCount = 0;
+    myShiftIndex = 0;
+    myShiftDelta = 0;
   }
 
   public void remove(int startIndex, int endIndex) {
+    moveShiftIndex(startIndex);
     myStarts = remove(myStarts, startIndex, endIndex);
     myEnds = remove(myEnds, startIndex, endIndex);
     mySegmentCount -= endIndex - startIndex;
+    if (myShiftIndex > mySegmentCount) myShiftIndex = mySegmentCount;
   }
 
   @NotNull
@@ -161,9 +218,13 @@ public class SegmentArray {
   }
 
   protected void insert(@NotNull SegmentArray segmentArray, int startIndex) {
+    segmentArray.flushShift();
+    moveShiftIndex(startIndex);
     myStarts = insert(myStarts, segmentArray.myStarts, startIndex, segmentArray.getSegmentCount());
     myEnds = insert(myEnds, segmentArray.myEnds, startIndex, segmentArray.getSegmentCount());
     mySegmentCount += segmentArray.getSegmentCount();
+    // inserted segments are not shifted
+    myShiftIndex += segmentArray.getSegmentCount();
   }
 
   @NotNull
@@ -180,14 +241,14 @@ public class SegmentArray {
     if (index < 0 || index >= mySegmentCount) {
       throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + mySegmentCount);
     }
-    return myStarts[index];
+    return myStarts[index] + pendingShift(index);
   }
 
   public int getSegmentEnd(int index) {
     if (index < 0 || index >= mySegmentCount) {
       throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + mySegmentCount);
     }
-    return myEnds[index];
+    return myEnds[index] + pendingShift(index);
   }
 
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -32,7 +32,6 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.ArrayUtil;
 import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
@@ -63,6 +62,7 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   private boolean myIsReadOnly = false;
   private boolean isStripTrailingSpacesEnabled = true;
   private volatile long myModificationStamp;
+  private volatile DocumentSnapshot mySnapshot; // published after both the text and the stamp are updated
   private final PropertyChangeSupport myPropertyChangeSupport = new PropertyChangeSupport(this);
 
   private DocumentListener[] myCachedDocumentListeners;
@@ -102,14 +102,10 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     }
   }
 
-  public char[] getRawChars() {
-    return myText.getChars();
-  }
-
   @Override
   @NotNull
   public char[] getChars() {
-    return ArrayUtil.realloc(CharArrayUtil.fromSequence(getCharsSequence()), myText.length());
+    return myText.getChars();
   }
 
   @Override
@@ -319,6 +315,23 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   @Override
   public void setModificationStamp(long modificationStamp) {
     myModificationStamp = modificationStamp;
+    mySnapshot = new DocumentSnapshot(myText.getImmutableText(), modificationStamp);
+  }
+
+  /**
+   * @return the current text with its modification stamp, doesn't require a read action
+   */
+  @NotNull
+  public DocumentSnapshot getSnapshot() {
+    return mySnapshot;
+  }
+
+  /**
+   * @return the current text which stays unchanged when the document is modified, doesn't require a read action
+   */
+  @NotNull
+  public CharSequence getImmutableCharSequence() {
+    return myText.getImmutableText();
   }
 
   @Override
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Computable;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Text of a document together with the modification stamp it corresponds to. Snapshots are immutable, so they may be held and read
+ * by any thread without a read action, e.g. by background processes which only need the text to be consistent.
+ *
+ * @see DocumentImpl#getSnapshot()
+ */
+public final class DocumentSnapshot {
+  private final CharSequence myText;
+  private final long myModificationStamp;
+
+  DocumentSnapshot(@NotNull CharSequence text, long modificationStamp) {
+    myText = text;
+    myModificationStamp = modificationStamp;
+  }
+
+  /**
+   * Takes the snapshot of the document. Snapshots of {@link DocumentImpl} are taken without locking, other documents are read
+   * in a read action.
+   */
+  @NotNull
+  public static DocumentSnapshot of(@NotNull final Document document) {
+    if (document instanceof DocumentImpl) {
+      return ((DocumentImpl)document).getSnapshot();
+    }
+    return ApplicationManager.getApplication().runReadAction(new Computable<DocumentSnapshot>() {
+      @Override
+      public DocumentSnapshot compute() {
+        return new DocumentSnapshot(document.getText(), document.getModificationStamp());
+      }
+    });
+  }
+
+  /**
+   * @return the text of the document, it doesn't change when the document is modified
+   */
+  @NotNull
+  public CharSequence getText() {
+    return myText;
+  }
+
+  public int getTextLength() {
+    return myText.length();
+  }
+
+  public long getModificationStamp() {
+    return myModificationStamp;
+  }
+
+  /**
+   * @return <code>true</code> if the document wasn't changed since the snapshot was taken
+   */
+  public boolean isUpToDate(@NotNull Document document) {
+    return document.getModificationStamp() == myModificationStamp;
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2010 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,9 +16,12 @@
 package com.intellij.openapi.editor.impl;
 
 import com.intellij.openapi.editor.ex.DisposableIterator;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Conditions;
 import com.intellij.openapi.util.Getter;
 import com.intellij.openapi.util.ProperTextRange;
 import com.intellij.openapi.util.Ref;
+import com.intellij.util.CommonProcessors;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
 import com.intellij.util.SmartList;
@@ -30,9 +33,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.ConcurrentModificationException;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -47,6 +48,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
   protected abstract int compareEqualStartIntervals(@NotNull IntervalNode<T> i1, @NotNull IntervalNode<T> i2);
   private final ReferenceQueue<T> myReferenceQueue = new ReferenceQueue<T>();
   private int deadReferenceCount;
+  private int myBulkAddDepth; // see startBulkAdd()
+  private final List<IntervalNode<T>> myPendingNodes = new ArrayList<IntervalNode<T>>(); // nodes added in bulk mode, not attached to the tree yet
 
   protected static class IntervalNode<E extends MutableInterval> extends RedBlackTree.Node<E> implements MutableInterval {
     private volatile int myStart;
@@ -403,7 +406,8 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     try {
       l.readLock().lock();
       checkMax(true);
-      return process(getRoot(), processor, modCount);
+      return process(getRoot(), processor, modCount) &&
+             (myPendingNodes.isEmpty() || processPendingNodes(Conditions.<IntervalNode<T>>alwaysTrue(), processor));
     }
     finally {
       l.readLock().unlock();
@@ -425,11 +429,17 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
   }
 
   @Override
-  public boolean processOverlappingWith(int start, int end, @NotNull Processor<? super T> processor) {
+  public boolean processOverlappingWith(final int start, final int end, @NotNull Processor<? super T> processor) {
     try {
       l.readLock().lock();
       checkMax(true);
-      return processOverlappingWith(getRoot(), start, end, processor, modCount, 0);
+      return processOverlappingWith(getRoot(), start, end, processor, modCount, 0) &&
+             (myPendingNodes.isEmpty() || processPendingNodes(new Condition<IntervalNode<T>>() {
+               @Override
+               public boolean value(IntervalNode<T> node) {
+                 return Math.max(node.intervalStart(), start) <= Math.min(node.intervalEnd(), end);
+               }
+             }, processor));
     }
     finally {
       l.readLock().unlock();
@@ -468,11 +478,17 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     return processOverlappingWith(root.getRight(), start, end, processor, modCountBefore, delta);
   }
 
-  public boolean processOverlappingWithOutside(int start, int end, @NotNull Processor<? super T> processor) {
+  public boolean processOverlappingWithOutside(final int start, final int end, @NotNull Processor<? super T> processor) {
     try {
       l.readLock().lock();
       checkMax(true);
-      return processOverlappingWithOutside(getRoot(), start, end, processor, modCount, 0);
+      return processOverlappingWithOutside(getRoot(), start, end, processor, modCount, 0) &&
+             (myPendingNodes.isEmpty() || processPendingNodes(new Condition<IntervalNode<T>>() {
+               @Override
+               public boolean value(IntervalNode<T> node) {
+                 return node.intervalStart() < start || node.intervalEnd() > end;
+               }
+             }, processor));
     }
     finally {
       l.readLock().unlock();
@@ -509,11 +525,17 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
 
 
   @Override
-  public boolean processContaining(int offset, @NotNull Processor<? super T> processor) {
+  public boolean processContaining(final int offset, @NotNull Processor<? super T> processor) {
     try {
       l.readLock().lock();
       checkMax(true);
-      return processContaining(getRoot(), offset, processor, modCount, 0);
+      return processContaining(getRoot(), offset, processor, modCount, 0) &&
+             (myPendingNodes.isEmpty() || processPendingNodes(new Condition<IntervalNode<T>>() {
+               @Override
+               public boolean value(IntervalNode<T> node) {
+                 return node.intervalStart() <= offset && offset < node.intervalEnd();
+               }
+             }, processor));
     }
     finally {
       l.readLock().unlock();
@@ -557,6 +579,9 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     l.readLock().lock();
 
     try {
+      if (!myPendingNodes.isEmpty()) {
+        return pendingOverlappingIterator(startOffset, endOffset);
+      }
       final IntervalNode<T> firstOverlap = findMinOverlappingWith(getRoot(), new TextRangeInterval(startOffset, endOffset), modCount, 0);
       if (firstOverlap == null) {
         l.readLock().unlock();
@@ -672,6 +697,56 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     }
   }
 
+  // called under read lock; returns the intervals of the tree and of the pending nodes in the order of their start offsets
+  @NotNull
+  private DisposableIterator<T> pendingOverlappingIterator(int startOffset, int endOffset) {
+    final List<T> intervals = new ArrayList<T>();
+    processOverlappingWith(startOffset, endOffset, new CommonProcessors.CollectProcessor<T>(intervals));
+    Collections.sort(intervals, new Comparator<T>() {
+      @Override
+      public int compare(T o1, T o2) {
+        return startOffset(lookupNode(o1)) - startOffset(lookupNode(o2));
+      }
+
+      private int startOffset(IntervalNode<T> node) {
+        // the delta of a pending node is 0, it has no parent
+        return node.intervalStart() + node.computeDeltaUpToRoot();
+      }
+    });
+    l.readLock().unlock();
+    final Iterator<T> iterator = intervals.iterator();
+    return new DisposableIterator<T>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public T next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new IncorrectOperationException();
+      }
+
+      @Override
+      public void dispose() {
+      }
+    };
+  }
+
+  // called under read lock: the nodes added in bulk mode are not in the tree yet, so the queries look through them too
+  private boolean processPendingNodes(@NotNull Condition<IntervalNode<T>> condition, @NotNull Processor<? super T> processor) {
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0; i < myPendingNodes.size(); i++) {
+      IntervalNode<T> node = myPendingNodes.get(i);
+      if (condition.value(node) && !node.processAliveKeys(processor)) return false;
+    }
+    return true;
+  }
+
   private boolean overlaps(IntervalNode<T> root, int startOffset, int endOffset, int deltaUpToRootExclusive) {
     if (root == null) return false;
     int delta = root.delta + deltaUpToRootExclusive;
@@ -751,6 +826,11 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       processReferenceQueue();
       modCount++;
       IntervalNode<T> newNode = createNewNode(interval, start, end, greedyToLeft, greedyToRight, layer);
+      if (myBulkAddDepth > 0) {
+        myPendingNodes.add(newNode);
+        setNode(interval, newNode);
+        return newNode;
+      }
       IntervalNode<T> insertedNode = findOrInsert(newNode);
       if (insertedNode == newNode) {
         setNode(interval, insertedNode);
@@ -909,6 +989,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     if (!interval.isValid()) return false;
     try {
       l.writeLock().lock();
+      attachPendingNodes();
       modCount++;
       if (!interval.isValid()) return false;
       checkBelongsToTheTree(interval, true);
@@ -953,7 +1034,154 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
 
   @Override
   public int size() {
-    return keySize;
+    return keySize + myPendingNodes.size();
+  }
+
+  /**
+   * Starts adding many intervals at once: until the matching {@link #finishBulkAdd()} the added intervals are not inserted
+   * into the tree one by one, but collected and attached to the tree together, see {@link #attachPendingNodes()}.
+   * Queries look through the collected intervals as well, modifications of the tree attach them first.
+   */
+  public void startBulkAdd() {
+    l.writeLock().lock();
+    try {
+      myBulkAddDepth++;
+    }
+    finally {
+      l.writeLock().unlock();
+    }
+  }
+
+  public void finishBulkAdd() {
+    l.writeLock().lock();
+    try {
+      assert myBulkAddDepth > 0 : myBulkAddDepth;
+      if (--myBulkAddDepth == 0) {
+        attachPendingNodes();
+      }
+    }
+    finally {
+      l.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Attaches the nodes added in bulk mode to the tree. A few nodes are inserted one by one, otherwise the balanced tree is rebuilt
+   * from the sorted sequence of the existing and the added nodes in linear time. Must be called under the write lock: a reader
+   * can't take it without a deadlock, so the queries never attach the nodes, see {@link #processPendingNodes}.
+   */
+  protected void attachPendingNodes() {
+    assertUnderWriteLock();
+    if (myPendingNodes.isEmpty()) return;
+    List<IntervalNode<T>> pending = new ArrayList<IntervalNode<T>>(myPendingNodes);
+    myPendingNodes.clear();
+    checkMax(true);
+    modCount++;
+
+    int nodeCount = nodeSize();
+    int log = 32 - Integer.numberOfLeadingZeros(nodeCount + pending.size());
+    if ((long)pending.size() * log < nodeCount) {
+      for (IntervalNode<T> node : pending) {
+        IntervalNode<T> insertedNode = findOrInsert(node);
+        if (insertedNode != node) {
+          // merged
+          for (Getter<T> key : node.intervals) {
+            T interval = key.get();
+            if (interval != null) {
+              insertedNode.addInterval(interval);
+            }
+          }
+        }
+      }
+    }
+    else {
+      rebuild(pending);
+    }
+    checkMax(true);
+  }
+
+  private void rebuild(@NotNull List<IntervalNode<T>> pending) {
+    List<IntervalNode<T>> existing = new ArrayList<IntervalNode<T>>(nodeSize());
+    collectNodesAndPushDeltas(getRoot(), 0, existing);
+    Comparator<IntervalNode<T>> comparator = new Comparator<IntervalNode<T>>() {
+      @Override
+      public int compare(IntervalNode<T> o1, IntervalNode<T> o2) {
+        return compareNodes(o1, o2);
+      }
+    };
+    Collections.sort(pending, comparator); // usually added in order, so it's linear
+
+    List<IntervalNode<T>> nodes = new ArrayList<IntervalNode<T>>(existing.size() + pending.size());
+    int keyCount = 0;
+    int i = 0;
+    int j = 0;
+    while (i < existing.size() || j < pending.size()) {
+      IntervalNode<T> node = j == pending.size() || i < existing.size() && compareNodes(existing.get(i), pending.get(j)) <= 0
+                             ? existing.get(i++)
+                             : pending.get(j++);
+      node.isAttachedToTree = false;
+      IntervalNode<T> last = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+      if (last != null && compareNodes(last, node) == 0) {
+        // merge
+        for (Getter<T> key : node.intervals) {
+          T interval = key.get();
+          if (interval != null) {
+            last.intervals.add(key);
+            setNode(interval, last);
+            keyCount++;
+          }
+        }
+        continue;
+      }
+      if (!node.hasAliveKey(false)) continue; // gced
+
+      node.setValid(true);
+      node.clearDelta();
+      node.isAttachedToTree = true;
+      nodes.add(node);
+      keyCount += node.intervals.size();
+    }
+
+    buildFromSorted(nodes);
+    keySize = keyCount;
+    IntervalNode<T> root = getRoot();
+    if (root != null) {
+      initMaxEnds(root);
+    }
+    for (IntervalNode<T> node : nodes) {
+      node.setCachedValues(0, true, modCount);
+    }
+  }
+
+  // collects nodes in order and makes their offsets absolute
+  private static <T extends MutableInterval> void collectNodesAndPushDeltas(IntervalNode<T> root,
+                                                                            int deltaUpToRootExclusive,
+                                                                            @NotNull List<IntervalNode<T>> nodes) {
+    if (root == null) return;
+    int delta = deltaUpToRootExclusive + (root.isValid() ? root.delta : 0);
+    collectNodesAndPushDeltas(root.getLeft(), delta, nodes);
+    root.setIntervalStart(root.intervalStart() + delta);
+    root.setIntervalEnd(root.intervalEnd() + delta);
+    root.delta = 0;
+    nodes.add(root);
+    collectNodesAndPushDeltas(root.getRight(), delta, nodes);
+  }
+
+  private static <T extends MutableInterval> int initMaxEnds(@NotNull IntervalNode<T> node) {
+    int maxEnd = node.intervalEnd();
+    IntervalNode<T> left = node.getLeft();
+    if (left != null) maxEnd = Math.max(maxEnd, initMaxEnds(left));
+    IntervalNode<T> right = node.getRight();
+    if (right != null) maxEnd = Math.max(maxEnd, initMaxEnds(right));
+    return node.maxEnd = maxEnd;
+  }
+
+  // for the nodes with all deltas pushed down
+  private int compareNodes(@NotNull IntervalNode<T> i1, @NotNull IntervalNode<T> i2) {
+    int start1 = i1.intervalStart();
+    int start2 = i2.intervalStart();
+    if (start1 != start2) return start1 - start2;
+    return compareEqualStartIntervals(i1, i2);
   }
 
   // returns true if all deltas involved are still 0
@@ -1190,6 +1418,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
   public void changeData(T interval, int start, int end, boolean greedyToLeft, boolean greedyToRight, int layer) {
     try {
       l.writeLock().lock();
+      attachPendingNodes();
 
       IntervalNode<T> node = lookupNode(interval);
       if (node == null) return;
@@ -1247,6 +1476,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     try {
       super.clear();
       keySize = 0;
+      myPendingNodes.clear();
     }
     finally {
       l.writeLock().unlock();
@@ -146,14 +146,8 @@ public class LineSet{
       segments.remove(changedLineIndex, changedLineIndex + 1);
     }
 
-// update data after lineIndex, shifting with optimizedLineShift
-    final int segmentCount = segments.getSegmentCount();
-    for(int i = changedLineIndex + 1; i < segmentCount; ++i) {
-      segments.setElementAt(i, segments.getSegmentStart(i) - lengthDiff,
-        segments.getSegmentEnd(i) - lengthDiff,
-        segments.getSegmentData(i)
-      );
-    }
+    // update data after lineIndex, the shift is applied lazily
+    segments.shiftSegments(changedLineIndex + 1, -lengthDiff);
 
     if (doTest) {
       final SegmentArrayWithData data = mySegments;
@@ -183,15 +177,8 @@ public class LineSet{
       segments = mySegments;
     }
 
-    int i;
-
-    // update data after lineIndex, shifting with optimizedLineShift
-    for(i = segments.getSegmentCount() - 1; i > changedLineIndex; --i) {
-      segments.setElementAt(i + optimizedLineShift, segments.getSegmentStart(i) + lengthDiff,
-        segments.getSegmentEnd(i) + lengthDiff,
-        segments.getSegmentData(i)
-      );
-    }
+    // update data after lineIndex, the shift is applied lazily
+    segments.shiftSegments(changedLineIndex + 1, lengthDiff);
 
     final int oldSegmentEnd = segments.getSegmentEnd(changedLineIndex);
     final int oldSegmentStart = segments.getSegmentStart(changedLineIndex);
@@ -204,14 +191,16 @@ public class LineSet{
       tokenizer.getLineSeparatorLength() | MODIFIED_MASK
     );
 
+    // the lines after the changed one, inserted with a single array copy
+    final SegmentArrayWithData insertedSegments = new SegmentArrayWithData();
     tokenizer.advance();
-    i = 1;
+    int i = 0;
     int lastFragmentLength = 0;
 
     while(!tokenizer.atEnd()) {
       lastFragmentLength = tokenizer.getLineSeparatorLength() != 0 ? 0:tokenizer.getLength();
-      segments.setElementAt(
-        changedLineIndex + i,
+      insertedSegments.setElementAt(
+        i,
         insertionPoint + tokenizer.getOffset(),
         insertionPoint + tokenizer.getOffset() + tokenizer.getLength() + tokenizer.getLineSeparatorLength(),
         tokenizer.getLineSeparatorLength() | MODIFIED_MASK
@@ -220,11 +209,12 @@ public class LineSet{
       tokenizer.advance();
     }
 
-    segments.setElementAt(
-      changedLineIndex + optimizedLineShift, insertionPoint + lengthDiff - lastFragmentLength,
+    insertedSegments.setElementAt(
+      optimizedLineShift - 1, insertionPoint + lengthDiff - lastFragmentLength,
       oldSegmentEnd + lengthDiff,
       oldSegmentData | MODIFIED_MASK
     );
+    segments.insert(insertedSegments, changedLineIndex + 1);
 
     if (doTest) {
       final SegmentArrayWithData data = mySegments;
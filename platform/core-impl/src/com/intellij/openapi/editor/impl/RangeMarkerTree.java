@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2010 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -182,6 +182,7 @@ public class RangeMarkerTree<T extends RangeMarkerEx> extends IntervalTreeImpl<T
   private void updateMarkersOnChange(@NotNull DocumentEvent e) {
     try {
       l.writeLock().lock();
+      attachPendingNodes();
       if (size() == 0) return;
       checkMax(true);
 
@@ -366,6 +367,7 @@ public class RangeMarkerTree<T extends RangeMarkerEx> extends IntervalTreeImpl<T
   private void reTarget(int start, int end, int newBase) {
     l.writeLock().lock();
     try {
+      attachPendingNodes();
       checkMax(true);
 
       List<IntervalNode<T>> affected = new ArrayList<IntervalNode<T>>();
@@ -18,6 +18,8 @@ package com.intellij.openapi.editor.impl;
 import com.intellij.util.Processor;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 
 /**
  * User: cdr
@@ -429,4 +431,40 @@ public abstract class RedBlackTree<K> {
     root = null;
     nodeSize = 0;
   }
+
+  /**
+   * Replaces the tree with the balanced one built of the given nodes in O(n). The nodes are to be sorted and distinct.
+   */
+  protected void buildFromSorted(@NotNull List<? extends Node<K>> nodes) {
+    modCount++;
+    nodeSize = nodes.size();
+    root = buildFromSorted(nodes, 0, nodes.size() - 1, 0, computeRedLevel(nodes.size()));
+    if (root != null) {
+      root.setParent(null);
+    }
+    verifyProperties();
+  }
+
+  private static <K> Node<K> buildFromSorted(@NotNull List<? extends Node<K>> nodes, int lo, int hi, int level, int redLevel) {
+    if (lo > hi) return null;
+    int mid = (lo + hi) >>> 1;
+    Node<K> node = nodes.get(mid);
+    Node<K> left = buildFromSorted(nodes, lo, mid - 1, level + 1, redLevel);
+    Node<K> right = buildFromSorted(nodes, mid + 1, hi, level + 1, redLevel);
+    node.setLeft(left);
+    if (left != null) left.setParent(node);
+    node.setRight(right);
+    if (right != null) right.setParent(node);
+    // only the nodes of the last incomplete level are red, so all the paths contain the same number of black nodes
+    node.color = level == redLevel ? Color.RED : Color.BLACK;
+    return node;
+  }
+
+  private static int computeRedLevel(int size) {
+    int level = 0;
+    for (int m = size - 1; m >= 0; m = m / 2 - 1) {
+      level++;
+    }
+    return level;
+  }
 }
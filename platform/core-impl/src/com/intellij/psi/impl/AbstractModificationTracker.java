@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -83,6 +83,9 @@ public abstract class AbstractModificationTracker implements PsiTreeChangePrepro
     if (!changedInsideCodeBlock) {
       processOutOfCodeBlockModification(event);
     }
+    else {
+      myModificationTracker.codeBlockChanged(event.getFile());
+    }
   }
 
   protected void processOutOfCodeBlockModification(final PsiTreeChangeEventImpl event) {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -397,6 +397,16 @@ public class PsiManagerImpl extends PsiManagerEx {
     myTreeChangePreprocessors.add(preprocessor);
   }
 
+  public void addTreeChangePreprocessor(@NotNull final PsiTreeChangePreprocessor preprocessor, @NotNull Disposable parentDisposable) {
+    addTreeChangePreprocessor(preprocessor);
+    Disposer.register(parentDisposable, new Disposable() {
+      @Override
+      public void dispose() {
+        myTreeChangePreprocessors.remove(preprocessor);
+      }
+    });
+  }
+
   private void fireEvent(PsiTreeChangeEventImpl event) {
     boolean isRealTreeChange = event.getCode() != PsiTreeChangeEventImpl.PsiEventType.PROPERTY_CHANGED
                                && event.getCode() != PsiTreeChangeEventImpl.PsiEventType.BEFORE_PROPERTY_CHANGE;
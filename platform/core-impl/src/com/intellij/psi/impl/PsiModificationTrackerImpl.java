@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,10 +19,14 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiDirectory;
+import com.intellij.psi.PsiFile;
 import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.messages.MessageBus;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -34,6 +38,7 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
   private final AtomicLong myOutOfCodeBlockModificationCount = new AtomicLong(0);
   private final AtomicLong myJavaStructureModificationCount = new AtomicLong(0);
   private final Listener myPublisher;
+  private final List<CodeBlockChangeListener> myCodeBlockChangeListeners = ContainerUtil.createEmptyCOWList();
 
   public PsiModificationTrackerImpl(Project project) {
     final MessageBus bus = project.getMessageBus();
@@ -68,8 +73,28 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
     myPublisher.modificationCountChanged();
   }
 
+  /**
+   * Called by the code block trackers for the changes which they found not to affect anything outside of the changed code block,
+   * i.e. the changes which don't increment the out of code block modification count.
+   *
+   * @param file the changed file or <code>null</code> if it's unknown
+   */
+  public void codeBlockChanged(@Nullable PsiFile file) {
+    for (CodeBlockChangeListener listener : myCodeBlockChangeListeners) {
+      listener.codeBlockChanged(file);
+    }
+  }
+
+  public void addCodeBlockChangeListener(@NotNull CodeBlockChangeListener listener) {
+    myCodeBlockChangeListeners.add(listener);
+  }
+
   @Override
   public void treeChanged(@NotNull PsiTreeChangeEventImpl event) {
+    // the code block trackers are the preprocessors registered after this one
+    for (CodeBlockChangeListener listener : myCodeBlockChangeListeners) {
+      listener.beforeEventProcessed(event);
+    }
     myModificationCount.getAndIncrement();
     if (event.getParent() instanceof PsiDirectory) {
       incOutOfCodeBlockModificationCounter();
@@ -92,4 +117,14 @@ public class PsiModificationTrackerImpl implements PsiModificationTracker, PsiTr
   public long getJavaStructureModificationCount() {
     return myJavaStructureModificationCount.get();
   }
+
+  public interface CodeBlockChangeListener {
+    /**
+     * Called for every PSI event before the code block trackers process it, so that the listener can tell which events
+     * weren't reported by any tracker.
+     */
+    void beforeEventProcessed(@NotNull PsiTreeChangeEventImpl event);
+
+    void codeBlockChanged(@Nullable PsiFile file);
+  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -22,29 +22,63 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiPolyVariantReference;
-import com.intellij.psi.PsiReference;
-import com.intellij.psi.ResolveResult;
+import com.intellij.psi.*;
 import com.intellij.psi.impl.AnyPsiChangeListener;
 import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.psi.impl.PsiModificationTrackerImpl;
+import com.intellij.psi.impl.PsiTreeChangeEventImpl;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.reference.SoftReference;
 import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.containers.ConcurrentWeakHashMap;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.messages.MessageBus;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Caches results of resolving the references until the PSI is changed.
+ * <p/>
+ * Every cached result is attributed to the file of the reference (for code fragments and injected files, to the file of their
+ * context). When the code block trackers report every event of a physical change to be inside of code blocks, i.e. the out of
+ * code block modification count stays the same, only the results attributed to the changed files are dropped. Any other change,
+ * e.g. one with events in a language without a code block tracker, drops everything, as before.
+ * <p/>
+ * The cache isn't used from the first event of a physical change till its end, when the PSI may be inconsistent. A
+ * beforePsiChanged() which isn't followed by any event, e.g. from {@link PsiManagerImpl#dropResolveCaches()}, just drops everything
+ * on the next access.
+ */
 public class ResolveCache {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.source.resolve.ResolveCache");
   private final ConcurrentMap[] myMaps = new ConcurrentMap[2*2*2]; //boolean physical, boolean incompleteCode, boolean isPoly
   private final AtomicInteger myClearCount = new AtomicInteger(0);
   private final RecursionGuard myGuard = RecursionManager.createGuard("resolveCache");
+  private final ConcurrentWeakHashMap<PsiFile, FileStamp> myFileStamps = createWeakMap();
+
+  @Nullable private final PsiModificationTracker myModificationTracker;
+  // state of the physical PSI change in progress, guarded by this
+  private volatile boolean myPhysicalChangeInProgress;
+  private int myChangeDepth;
+  private long myOutOfCodeBlockCountOnChangeStart;
+  private int myEventCount;
+  private int myReportedEventCount;
+  private boolean myLastEventReported;
+  private boolean myUnknownCodeBlockChanged;
+  private final Set<PsiFile> myChangedFiles = new THashSet<PsiFile>();
+
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myOutdatedHits = new AtomicLong();
+  private final AtomicLong myFullClears = new AtomicLong();
+  private final AtomicLong myClearedEntries = new AtomicLong();
+  private final AtomicLong myFileInvalidations = new AtomicLong();
 
   public static ResolveCache getInstance(Project project) {
     ProgressIndicatorProvider.checkCanceled(); // We hope this method is being called often enough to cancel daemon processes smoothly
@@ -64,17 +98,43 @@ public class ResolveCache {
   }
 
   public ResolveCache(@NotNull MessageBus messageBus) {
+    this(messageBus, null);
+  }
+
+  public ResolveCache(@NotNull MessageBus messageBus, @Nullable PsiModificationTracker modificationTracker) {
     for (int i = 0; i < myMaps.length; i++) {
       myMaps[i] = createWeakMap();
     }
+    myModificationTracker = modificationTracker instanceof PsiModificationTrackerImpl ? modificationTracker : null;
+    if (myModificationTracker != null) {
+      ((PsiModificationTrackerImpl)myModificationTracker).addCodeBlockChangeListener(new PsiModificationTrackerImpl.CodeBlockChangeListener() {
+        @Override
+        public void beforeEventProcessed(@NotNull PsiTreeChangeEventImpl event) {
+          registerEvent(event);
+        }
+
+        @Override
+        public void codeBlockChanged(@Nullable PsiFile file) {
+          registerCodeBlockChange(file);
+        }
+      });
+    }
     messageBus.connect().subscribe(PsiManagerImpl.ANY_PSI_CHANGE_TOPIC, new AnyPsiChangeListener() {
       @Override
       public void beforePsiChanged(boolean isPhysical) {
-        clearCache(isPhysical);
+        if (isPhysical && myModificationTracker != null) {
+          startPhysicalChange();
+        }
+        else {
+          clearCache(isPhysical);
+        }
       }
 
       @Override
       public void afterPsiChanged(boolean isPhysical) {
+        if (isPhysical && myModificationTracker != null) {
+          finishPhysicalChange(false);
+        }
       }
     });
   }
@@ -85,8 +145,129 @@ public class ResolveCache {
 
   public void clearCache(boolean isPhysical) {
     myClearCount.incrementAndGet();
+    myFullClears.incrementAndGet();
     int startIndex = isPhysical ? 0 : 1;
-    for (int i=startIndex;i<2;i++)for (int j=0;j<2;j++)for (int k=0;k<2;k++) myMaps[i*4+j*2+k].clear();
+    for (int i=startIndex;i<2;i++)for (int j=0;j<2;j++)for (int k=0;k<2;k++) {
+      ConcurrentMap map = myMaps[i * 4 + j * 2 + k];
+      myClearedEntries.addAndGet(map.size());
+      map.clear();
+    }
+  }
+
+  private synchronized void startPhysicalChange() {
+    myClearCount.incrementAndGet();
+    if (!myPhysicalChangeInProgress) {
+      assert myModificationTracker != null;
+      myOutOfCodeBlockCountOnChangeStart = myModificationTracker.getOutOfCodeBlockModificationCount();
+      myEventCount = 0;
+      myReportedEventCount = 0;
+      myUnknownCodeBlockChanged = false;
+      myChangedFiles.clear();
+      myPhysicalChangeInProgress = true;
+    }
+    else if (myEventCount == 0) {
+      // every matched beforePsiChanged() is followed by an event, so the previous one won't be matched
+      myUnknownCodeBlockChanged = true;
+      return;
+    }
+    myChangeDepth++;
+  }
+
+  private synchronized void registerEvent(@NotNull PsiTreeChangeEventImpl event) {
+    PsiFile file = event.getFile();
+    if (file != null && !file.isPhysical()) {
+      // non-physical changes clear their caches in beforePsiChanged(false)
+      myLastEventReported = true;
+      return;
+    }
+    if (!myPhysicalChangeInProgress) {
+      // beforePsiChanged() was taken for an unmatched one by a resolve before the first event, the change start is unknown
+      startPhysicalChange();
+      myUnknownCodeBlockChanged = true;
+    }
+    myEventCount++;
+    // generic children changes are always accompanied by the specific events, the trackers ignore them
+    myLastEventReported = event.isGenericChildrenChange();
+    if (myLastEventReported) {
+      myReportedEventCount++;
+    }
+  }
+
+  private synchronized void registerCodeBlockChange(@Nullable PsiFile file) {
+    if (!myPhysicalChangeInProgress) return;
+    if (file == null) {
+      myUnknownCodeBlockChanged = true;
+    }
+    else {
+      myChangedFiles.add(file);
+    }
+    if (!myLastEventReported) {
+      myLastEventReported = true;
+      myReportedEventCount++;
+    }
+  }
+
+  /**
+   * @param interrupted <code>true</code> if the change isn't going to be finished by afterPsiChanged(),
+   *                    e.g. after {@link PsiManagerImpl#dropResolveCaches()}; everything is dropped then
+   */
+  private synchronized void finishPhysicalChange(boolean interrupted) {
+    if (!myPhysicalChangeInProgress || !interrupted && --myChangeDepth > 0) return;
+
+    assert myModificationTracker != null;
+    if (interrupted || myUnknownCodeBlockChanged || myChangedFiles.isEmpty() || myReportedEventCount != myEventCount ||
+        myOutOfCodeBlockCountOnChangeStart != myModificationTracker.getOutOfCodeBlockModificationCount()) {
+      clearCache(true);
+    }
+    else {
+      myClearCount.incrementAndGet();
+      for (PsiFile file : myChangedFiles) {
+        FileStamp stamp = myFileStamps.remove(getOwnerFile(file));
+        if (stamp != null) {
+          stamp.outdated = true;
+        }
+        myFileInvalidations.incrementAndGet();
+      }
+    }
+    myChangedFiles.clear();
+    myChangeDepth = 0;
+    myPhysicalChangeInProgress = false;
+  }
+
+  /**
+   * @return <code>true</code> if the cache can't be used now, because a physical change is being made in this write action
+   */
+  private boolean isChangeInProgress() {
+    if (!myPhysicalChangeInProgress) return false;
+    synchronized (this) {
+      if (!myPhysicalChangeInProgress) return false;
+      if (myEventCount > 0 && ApplicationManager.getApplication().isWriteAccessAllowed()) return true;
+      // no events since beforePsiChanged() or no afterPsiChanged() till the end of the write action
+      finishPhysicalChange(true);
+      return false;
+    }
+  }
+
+  @NotNull
+  private static PsiFile getOwnerFile(@NotNull PsiFile file) {
+    while (true) {
+      PsiElement context = file.getContext();
+      PsiFile contextFile = context == null ? null : context.getContainingFile();
+      if (contextFile == null || contextFile == file) return file;
+      file = contextFile;
+    }
+  }
+
+  @Nullable
+  private FileStamp getFileStamp(@NotNull PsiElement element) {
+    PsiFile file = element.getContainingFile();
+    if (file == null) return null;
+    file = getOwnerFile(file);
+    FileStamp stamp = myFileStamps.get(file);
+    if (stamp == null) {
+      stamp = ConcurrencyUtil.cacheOrGet(myFileStamps, file, new FileStamp());
+    }
+    return stamp;
   }
 
   @Nullable
@@ -98,14 +279,21 @@ public class ResolveCache {
     ProgressIndicatorProvider.checkCanceled();
     ApplicationManager.getApplication().assertReadAccessAllowed();
 
+    boolean useCache = !isChangeInProgress();
     int clearCountOnStart = myClearCount.intValue();
-    boolean physical = ref.getElement().isPhysical();
-    ConcurrentMap<TRef, Getter<TResult>> map = getMap(physical, incompleteCode, isPoly);
-    Getter<TResult> reference = map.get(ref);
-    TResult result = reference == null ? null : reference.get();
+    PsiElement refElement = ref.getElement();
+    boolean physical = refElement.isPhysical();
+    ConcurrentMap<TRef, CachedResult<TResult>> map = getMap(physical, incompleteCode, isPoly);
+    CachedResult<TResult> cached = useCache ? map.get(ref) : null;
+    TResult result = cached == null ? null : cached.get();
     if (result != null) {
+      myHits.incrementAndGet();
       return result;
     }
+    myMisses.incrementAndGet();
+    if (cached != null && cached.isOutdated()) {
+      myOutdatedHits.incrementAndGet();
+    }
 
     Computable<TResult> computable = new Computable<TResult>() {
       @Override
@@ -119,8 +307,8 @@ public class ResolveCache {
     PsiElement element = result instanceof ResolveResult ? ((ResolveResult)result).getElement() : null;
     LOG.assertTrue(element == null || element.isValid(), result);
 
-    if (stamp.mayCacheNow() && clearCountOnStart == myClearCount.intValue()) {
-      cache(ref, map, result, isPoly);
+    if (useCache && stamp.mayCacheNow() && clearCountOnStart == myClearCount.intValue()) {
+      cache(ref, map, result, isPoly, getFileStamp(refElement));
     }
     return result;
   }
@@ -135,9 +323,10 @@ public class ResolveCache {
   }
 
   public <T extends PsiPolyVariantReference> boolean isCached(@NotNull T ref, boolean physical, boolean incompleteCode, boolean isPoly) {
-    Map<T, Getter<ResolveResult[]>> map = getMap(physical, incompleteCode, isPoly);
-    Getter<ResolveResult[]> reference = map.get(ref);
-    return reference != null && reference.get() != null;
+    if (isChangeInProgress()) return false;
+    Map<T, CachedResult<ResolveResult[]>> map = getMap(physical, incompleteCode, isPoly);
+    CachedResult<ResolveResult[]> cached = map.get(ref);
+    return cached != null && cached.get() != null;
   }
 
   public PsiElement resolveWithCaching(@NotNull PsiReference ref,
@@ -155,11 +344,40 @@ public class ResolveCache {
     return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false);
   }
 
-  private <TRef extends PsiReference,TResult> ConcurrentMap<TRef, Getter<TResult>> getMap(boolean physical, boolean incompleteCode, boolean isPoly) {
+  private <TRef extends PsiReference,TResult> ConcurrentMap<TRef, CachedResult<TResult>> getMap(boolean physical, boolean incompleteCode, boolean isPoly) {
     //noinspection unchecked
     return myMaps[(physical ? 0 : 1)*4 + (incompleteCode ? 0 : 1)*2 + (isPoly ? 0 : 1)];
   }
 
+  @NotNull
+  public Statistics getStatistics() {
+    return new Statistics(myHits.get(), myMisses.get(), myOutdatedHits.get(), myFullClears.get(), myClearedEntries.get(),
+                          myFileInvalidations.get());
+  }
+
+  private static class FileStamp {
+    private volatile boolean outdated;
+  }
+
+  private static class CachedResult<T> {
+    private final Getter<T> myResult;
+    @Nullable private final FileStamp myStamp;
+
+    private CachedResult(@NotNull Getter<T> result, @Nullable FileStamp stamp) {
+      myResult = result;
+      myStamp = stamp;
+    }
+
+    private boolean isOutdated() {
+      return myStamp != null && myStamp.outdated;
+    }
+
+    @Nullable
+    private T get() {
+      return isOutdated() ? null : myResult.get();
+    }
+  }
+
   private static class SoftGetter<T> extends SoftReference<T> implements Getter<T> {
     public SoftGetter(T referent) {
       super(referent);
@@ -168,27 +386,65 @@ public class ResolveCache {
   private static final Getter<ResolveResult[]> EMPTY_POLY_RESULT = new StaticGetter<ResolveResult[]>(ResolveResult.EMPTY_ARRAY);
   private static final Getter<Object> NULL_RESULT = new StaticGetter<Object>(null);
   private static <TRef extends PsiReference, TResult> void cache(@NotNull TRef ref,
-                                                                 @NotNull ConcurrentMap<TRef, Getter<TResult>> map,
+                                                                 @NotNull ConcurrentMap<TRef, CachedResult<TResult>> map,
                                                                  TResult result,
-                                                                 boolean isPoly) {
+                                                                 boolean isPoly,
+                                                                 @Nullable FileStamp stamp) {
     // optimization: less contention
-    Getter<TResult> cached = map.get(ref);
-    if (cached != null && cached.get() == result) {
+    CachedResult<TResult> cached = map.get(ref);
+    if (cached != null && cached.myStamp == stamp && cached.get() == result) {
       return;
     }
+    Getter<TResult> getter;
     if (result == null) {
       // no use in creating SoftReference to null
       //noinspection unchecked
-      cached = (Getter<TResult>)NULL_RESULT;
+      getter = (Getter<TResult>)NULL_RESULT;
     }
     else if (isPoly && ((Object[])result).length == 0) {
       // no use in creating SoftReference to empty array
       //noinspection unchecked
-      cached = result.getClass() == ResolveResult[].class ? (Getter<TResult>)EMPTY_POLY_RESULT : new StaticGetter<TResult>(result);
+      getter = result.getClass() == ResolveResult[].class ? (Getter<TResult>)EMPTY_POLY_RESULT : new StaticGetter<TResult>(result);
     }
     else {
-      cached = new SoftGetter<TResult>(result);
+      getter = new SoftGetter<TResult>(result);
+    }
+    CachedResult<TResult> newCached = new CachedResult<TResult>(getter, stamp);
+    if (cached == null) {
+      map.putIfAbsent(ref, newCached);
+    }
+    else {
+      // the outdated or garbage collected result is replaced
+      map.put(ref, newCached);
+    }
+  }
+
+  public static class Statistics {
+    public final long hits;
+    public final long misses;
+    public final long outdatedHits;
+    public final long fullClears;
+    public final long clearedEntries;
+    public final long fileInvalidations;
+
+    private Statistics(long _hits, long _misses, long _outdatedHits, long _fullClears, long _clearedEntries, long _fileInvalidations) {
+      hits = _hits;
+      misses = _misses;
+      outdatedHits = _outdatedHits;
+      fullClears = _fullClears;
+      clearedEntries = _clearedEntries;
+      fileInvalidations = _fileInvalidations;
+    }
+
+    public int getHitRate() {
+      final long total = hits + misses;
+      return total == 0 ? 0 : (int)(hits * 100 / total);
+    }
+
+    @Override
+    public String toString() {
+      return "hits=" + hits + ", misses=" + misses + " (" + getHitRate() + "% hit rate), outdated by file changes=" + outdatedHits +
+             ", full clears=" + fullClears + " (" + clearedEntries + " entries), file invalidations=" + fileInvalidations;
     }
-    ConcurrencyUtil.cacheOrGet(map, ref, cached);
   }
 }
@@ -33,11 +33,19 @@ public class ObjectStubTree<T extends Stub> {
 
   protected static final Key<ObjectStubTree> STUB_TO_TREE_REFERENCE = Key.create("stub to tree reference");
   protected final ObjectStubBase myRoot;
-  protected final List<T> myPlainList = new ArrayList<T>();
+  protected final List<T> myPlainList;
 
   public ObjectStubTree(@NotNull final ObjectStubBase root, final boolean withBackReference) {
     myRoot = root;
-    enumerateStubs(root, (List<Stub>)myPlainList);
+    ArrayList<Stub> plainList = new ArrayList<Stub>();
+    enumerateStubs(root, plainList);
+    // the tree is complete, so its stubs may drop their children lists in favour of the shared flat representation
+    List<? extends Stub> compactList = StubList.compact(plainList);
+    if (compactList == null) {
+      plainList.trimToSize();
+    }
+    //noinspection unchecked
+    myPlainList = (List<T>)(compactList != null ? compactList : plainList);
     if (withBackReference) {
       myRoot.putUserData(STUB_TO_TREE_REFERENCE, this); // This will prevent soft references to stub tree to be collected before all of the stubs are collected.
     }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -612,11 +612,16 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
       return AsyncFutureFactory.wrap(true);
     }
 
-    final Map<RequestWithProcessor, StringSearcher> searchers = new HashMap<RequestWithProcessor, StringSearcher>();
+    // requests for the same word share the scan of the file text, each occurrence is passed to all of them
+    final Map<Pair<String, Boolean>, StringSearcher> searchers = new HashMap<Pair<String, Boolean>, StringSearcher>();
     final Set<String> allWords = new TreeSet<String>();
     for (RequestWithProcessor singleRequest : candidateFiles.values()) {
-      searchers.put(singleRequest, new StringSearcher(singleRequest.request.word, singleRequest.request.caseSensitive, true));
-      allWords.add(singleRequest.request.word);
+      PsiSearchRequest request = singleRequest.request;
+      Pair<String, Boolean> word = Pair.create(request.word, request.caseSensitive);
+      if (!searchers.containsKey(word)) {
+        searchers.put(word, new StringSearcher(request.word, request.caseSensitive, true));
+      }
+      allWords.add(request.word);
     }
 
     if (progress != null) {
@@ -628,10 +633,19 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
         @Override
         public boolean process(PsiElement psiRoot) {
           final VirtualFile vfile = psiRoot.getContainingFile().getVirtualFile();
-          for (final RequestWithProcessor singleRequest : candidateFiles.get(vfile)) {
-            StringSearcher searcher = searchers.get(singleRequest);
-            TextOccurenceProcessor adapted = adaptProcessor(singleRequest.request, singleRequest.refProcessor);
-            if (!LowLevelSearchUtil.processElementsContainingWordInElement(adapted, psiRoot, searcher, true, progress)) {
+          MultiMap<Pair<String, Boolean>, TextOccurenceProcessor> processors = new MultiMap<Pair<String, Boolean>, TextOccurenceProcessor>() {
+            @Override
+            protected Map<Pair<String, Boolean>, Collection<TextOccurenceProcessor>> createMap() {
+              return new LinkedHashMap<Pair<String, Boolean>, Collection<TextOccurenceProcessor>>();
+            }
+          };
+          for (RequestWithProcessor singleRequest : candidateFiles.get(vfile)) {
+            PsiSearchRequest request = singleRequest.request;
+            processors.putValue(Pair.create(request.word, request.caseSensitive), adaptProcessor(request, singleRequest.refProcessor));
+          }
+          for (Map.Entry<Pair<String, Boolean>, Collection<TextOccurenceProcessor>> entry : processors.entrySet()) {
+            TextOccurenceProcessor processor = mergeProcessors(entry.getValue());
+            if (!LowLevelSearchUtil.processElementsContainingWordInElement(processor, psiRoot, searchers.get(entry.getKey()), true, progress)) {
               return false;
             }
           }
@@ -665,6 +679,20 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
     return result.toString();
   }
 
+  @NotNull
+  private static TextOccurenceProcessor mergeProcessors(@NotNull final Collection<TextOccurenceProcessor> processors) {
+    if (processors.size() == 1) return processors.iterator().next();
+    return new TextOccurenceProcessor() {
+      @Override
+      public boolean execute(PsiElement element, int offsetInElement) {
+        for (TextOccurenceProcessor processor : processors) {
+          if (!processor.execute(element, offsetInElement)) return false;
+        }
+        return true;
+      }
+    };
+  }
+
   @NotNull
   private static TextOccurenceProcessor adaptProcessor(@NotNull PsiSearchRequest singleRequest,
                                                        @NotNull final Processor<PsiReference> consumer) {
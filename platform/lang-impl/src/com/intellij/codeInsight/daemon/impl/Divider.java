@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2010 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -116,6 +116,14 @@ public class Divider {
       else {
         // composite element
         if (offset > endOffset) break;
+        int childLength = child.getTextLength();
+        if (offset + childLength < startOffset) {
+          // neither the child nor its descendants can get into the range, so don't walk the subtree:
+          // otherwise everything before the (usually small) dirty range would be visited on each restart
+          offset += childLength;
+          child = child.getNextSibling();
+          continue;
+        }
         children.push(child.getNextSibling());
         starts.push(offset);
         elements.push(element);
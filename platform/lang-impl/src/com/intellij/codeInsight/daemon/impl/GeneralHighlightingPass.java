@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -55,6 +55,7 @@ import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.problems.Problem;
 import com.intellij.problems.WolfTheProblemSolver;
@@ -78,6 +79,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingPass implements DumbAware {
@@ -85,6 +87,10 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
   static final String PRESENTABLE_NAME = DaemonBundle.message("pass.syntax");
   private static final Key<Boolean> HAS_ERROR_ELEMENT = Key.create("HAS_ERROR_ELEMENT");
   private static final JobLauncher JobUtil = JobLauncher.getInstance();
+  // elements are visited by all visitors concurrently in chunks of this size, then the results are applied in order
+  private static final int PARALLEL_CHUNK_SIZE = 1000;
+  // most files are smaller, for them the hand-offs to other threads per chunk cost more than they save
+  private static final int PARALLEL_MIN_ELEMENTS = 20000;
 
   private final int myStartOffset;
   private final int myEndOffset;
@@ -605,16 +611,32 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
     }, 200);
 
 
+    // not for the batch passes (e.g. the wolf's one) which rely on the order in which the holder gets infos.
+    // Off by default: a visitor doesn't see the infos of the others in this mode, while some of them check the holder
+    // for errors reported by the preceding visitors (e.g. XmlHighlightVisitor for the DefaultHighlightVisitor's ones)
+    final boolean parallel = myUpdateAll && visitors.length > 1 &&
+                             elements1.size() + elements2.size() > PARALLEL_MIN_ELEMENTS &&
+                             Registry.is("daemon.highlight.visitors.in.parallel");
+    final HighlightInfoHolder[] holders = new HighlightInfoHolder[visitors.length];
+    for (int i = 0; i < holders.length; i++) {
+      holders[i] = parallel ? createInfoHolder(myFile) : holder;
+    }
+
     final Runnable action = new Runnable() {
       @Override
       public void run() {
         Stack<Pair<TextRange, List<HighlightInfo>>> nested = new Stack<Pair<TextRange, List<HighlightInfo>>>();
-        boolean failed = false;
+        AtomicBoolean failed = new AtomicBoolean();
         //noinspection unchecked
         for (List<PsiElement> elements : new List[]{elements1, elements2}) {
           nested.clear();
           int nextLimit = chunkSize;
+          List<HighlightInfo>[] chunkInfos = null;
           for (int i = 0; i < elements.size(); i++) {
+            if (parallel && i % PARALLEL_CHUNK_SIZE == 0) {
+              List<PsiElement> chunk = elements.subList(i, Math.min(elements.size(), i + PARALLEL_CHUNK_SIZE));
+              chunkInfos = visitConcurrently(chunk, visitors, holders, progress, failed);
+            }
             PsiElement element = elements.get(i);
             progress.checkCanceled();
 
@@ -629,24 +651,15 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
             }
             holder.clear();
 
-            for (final HighlightVisitor visitor : visitors) {
-              try {
-                visitor.visit(element);
-              }
-              catch (ProcessCanceledException e) {
-                throw e;
-              }
-              catch (IndexNotReadyException e) {
-                throw e;
+            if (chunkInfos != null) {
+              List<HighlightInfo> infos = chunkInfos[i % PARALLEL_CHUNK_SIZE];
+              if (infos != null) {
+                holder.addAll(infos);
               }
-              catch (WolfTheProblemSolverImpl.HaveGotErrorException e) {
-                throw e;
-              }
-              catch (Exception e) {
-                if (!failed) {
-                  LOG.error(e);
-                }
-                failed = true;
+            }
+            else {
+              for (final HighlightVisitor visitor : visitors) {
+                visit(visitor, element, failed);
               }
             }
 
@@ -704,7 +717,85 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
       }
     };
 
-    analyzeByVisitors(progress, visitors, holder, 0, action);
+    analyzeByVisitors(progress, visitors, holders, 0, action);
+  }
+
+  private static void visit(@NotNull HighlightVisitor visitor, @NotNull PsiElement element, @NotNull AtomicBoolean failed) {
+    try {
+      visitor.visit(element);
+    }
+    catch (ProcessCanceledException e) {
+      throw e;
+    }
+    catch (IndexNotReadyException e) {
+      throw e;
+    }
+    catch (WolfTheProblemSolverImpl.HaveGotErrorException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      if (!failed.getAndSet(true)) {
+        LOG.error(e);
+      }
+    }
+  }
+
+  /**
+   * Runs the visitors over the elements concurrently, one job per visitor, so that every visitor still sees the elements
+   * in the same order as in the sequential mode. Parents of erroneous elements can't be skipped here, their infos are
+   * dropped by the caller instead.
+   *
+   * @return infos for each element, in the order of visitors, i.e. the same as they'd be collected in a single holder
+   */
+  @NotNull
+  private List<HighlightInfo>[] visitConcurrently(@NotNull final List<PsiElement> elements,
+                                                  @NotNull final HighlightVisitor[] visitors,
+                                                  @NotNull final HighlightInfoHolder[] holders,
+                                                  @NotNull ProgressIndicator progress,
+                                                  @NotNull final AtomicBoolean failed) {
+    //noinspection unchecked
+    final List<HighlightInfo>[][] visitorInfos = new List[visitors.length][];
+    List<Integer> visitorIndices = new ArrayList<Integer>(visitors.length);
+    for (int i = 0; i < visitors.length; i++) {
+      visitorIndices.add(i);
+    }
+    boolean result = JobUtil.invokeConcurrentlyUnderProgress(visitorIndices, progress, isFailFastOnAcquireReadAction(), new Processor<Integer>() {
+      @Override
+      public boolean process(Integer index) {
+        HighlightVisitor visitor = visitors[index];
+        HighlightInfoHolder holder = holders[index];
+        //noinspection unchecked
+        List<HighlightInfo>[] infos = new List[elements.size()];
+        for (int i = 0; i < elements.size(); i++) {
+          holder.clear();
+          visit(visitor, elements.get(i), failed);
+          if (holder.size() != 0) {
+            infos[i] = new ArrayList<HighlightInfo>(holder.size());
+            for (int j = 0; j < holder.size(); j++) {
+              infos[i].add(holder.get(j));
+            }
+          }
+        }
+        visitorInfos[index] = infos;
+        return true;
+      }
+    });
+    if (!result) throw new ProcessCanceledException();
+
+    //noinspection unchecked
+    List<HighlightInfo>[] merged = new List[elements.size()];
+    for (List<HighlightInfo>[] infos : visitorInfos) {
+      for (int i = 0; i < infos.length; i++) {
+        if (infos[i] == null) continue;
+        if (merged[i] == null) {
+          merged[i] = infos[i];
+        }
+        else {
+          merged[i].addAll(infos[i]);
+        }
+      }
+    }
+    return merged;
   }
 
   protected void killAbandonedHighlightsUnder(@NotNull final TextRange range,
@@ -740,17 +831,17 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
 
   private void analyzeByVisitors(@NotNull final ProgressIndicator progress,
                                  @NotNull final HighlightVisitor[] visitors,
-                                 @NotNull final HighlightInfoHolder holder,
+                                 @NotNull final HighlightInfoHolder[] holders,
                                  final int i,
                                  @NotNull final Runnable action) {
     if (i == visitors.length) {
       action.run();
     }
     else {
-      if (!visitors[i].analyze(myFile, myUpdateAll, holder, new Runnable() {
+      if (!visitors[i].analyze(myFile, myUpdateAll, holders[i], new Runnable() {
         @Override
         public void run() {
-          analyzeByVisitors(progress, visitors, holder, i+1, action);
+          analyzeByVisitors(progress, visitors, holders, i+1, action);
         }
       })) {
         cancelAndRestartDaemonLater(progress, myProject, this);
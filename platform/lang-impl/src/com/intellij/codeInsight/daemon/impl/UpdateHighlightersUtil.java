@@ -268,37 +268,42 @@ public class UpdateHighlightersUtil {
 
     final Map<TextRange, RangeMarker> ranges2markersCache = new THashMap<TextRange, RangeMarker>(10);
     final boolean[] changed = {false};
-    RangeMarkerTree.sweep(new RangeMarkerTree.Generator<HighlightInfo>(){
+    ((MarkupModelEx)markup).runBatchOperation(new Runnable() {
       @Override
-      public boolean generate(Processor<HighlightInfo> processor) {
-        return ContainerUtil.process(infos, processor);
-      }
-    }, new SweepProcessor<HighlightInfo>() {
-      @Override
-      public boolean process(int offset, HighlightInfo info, boolean atStart, Collection<HighlightInfo> overlappingIntervals) {
-        if (!atStart) return true;
-        if (!info.fromInjection && info.getEndOffset() < document.getTextLength() && (info.getEndOffset() <= startOffset || info.getStartOffset()>=endOffset)) return true; // injections are oblivious to restricting range
-
-        if (info.isFileLevelAnnotation && psiFile != null && psiFile.getViewProvider().isPhysical()) {
-          addFileLevelHighlight(project, group, info, psiFile);
-          changed[0] = true;
-          return true;
-        }
-        if (isWarningCoveredByError(info, overlappingIntervals, severityRegistrar)) {
-          return true;
-        }
-        if (info.getStartOffset() < range.getStartOffset() || info.getEndOffset() > range.getEndOffset()) {
-          createOrReuseHighlighterFor(info, colorsScheme, document, group, psiFile, (MarkupModelEx)markup, infosToRemove,
-                                        ranges2markersCache, severityRegistrar);
+      public void run() {
+        RangeMarkerTree.sweep(new RangeMarkerTree.Generator<HighlightInfo>(){
+          @Override
+          public boolean generate(Processor<HighlightInfo> processor) {
+            return ContainerUtil.process(infos, processor);
+          }
+        }, new SweepProcessor<HighlightInfo>() {
+          @Override
+          public boolean process(int offset, HighlightInfo info, boolean atStart, Collection<HighlightInfo> overlappingIntervals) {
+            if (!atStart) return true;
+            if (!info.fromInjection && info.getEndOffset() < document.getTextLength() && (info.getEndOffset() <= startOffset || info.getStartOffset()>=endOffset)) return true; // injections are oblivious to restricting range
+
+            if (info.isFileLevelAnnotation && psiFile != null && psiFile.getViewProvider().isPhysical()) {
+              addFileLevelHighlight(project, group, info, psiFile);
+              changed[0] = true;
+              return true;
+            }
+            if (isWarningCoveredByError(info, overlappingIntervals, severityRegistrar)) {
+              return true;
+            }
+            if (info.getStartOffset() < range.getStartOffset() || info.getEndOffset() > range.getEndOffset()) {
+              createOrReuseHighlighterFor(info, colorsScheme, document, group, psiFile, (MarkupModelEx)markup, infosToRemove,
+                                            ranges2markersCache, severityRegistrar);
+              changed[0] = true;
+            }
+            return true;
+          }
+        });
+        for (RangeHighlighter highlighter : infosToRemove.forAllInGarbageBin()) {
+          highlighter.dispose();
           changed[0] = true;
         }
-        return true;
       }
     });
-    for (RangeHighlighter highlighter : infosToRemove.forAllInGarbageBin()) {
-      highlighter.dispose();
-      changed[0] = true;
-    }
 
     if (changed[0]) {
       clearWhiteSpaceOptimizationFlag(document);
@@ -339,36 +344,41 @@ public class UpdateHighlightersUtil {
     final Map<TextRange, RangeMarker> ranges2markersCache = new THashMap<TextRange, RangeMarker>(10);
     final PsiFile psiFile = PsiDocumentManager.getInstance(project).getPsiFile(document);
     final boolean[] changed = {false};
-    RangeMarkerTree.sweep(new RangeMarkerTree.Generator<HighlightInfo>(){
+    markup.runBatchOperation(new Runnable() {
       @Override
-      public boolean generate(final Processor<HighlightInfo> processor) {
-        return ContainerUtil.process(highlights, processor);
-      }
-    }, new SweepProcessor<HighlightInfo>() {
-      @Override
-      public boolean process(int offset, HighlightInfo info, boolean atStart, Collection<HighlightInfo> overlappingIntervals) {
-        if (!atStart) {
-          return true;
-        }
-        if (info.isFileLevelAnnotation && psiFile != null && psiFile.getViewProvider().isPhysical()) {
-          addFileLevelHighlight(project, group, info, psiFile);
-          changed[0] = true;
-          return true;
-        }
-        if (isWarningCoveredByError(info, overlappingIntervals, severityRegistrar)) {
-          return true;
-        }
-        if (info.getStartOffset() >= range.getStartOffset() && info.getEndOffset() <= range.getEndOffset() && psiFile != null) {
-          createOrReuseHighlighterFor(info, colorsScheme, document, group, psiFile, markup, infosToRemove, ranges2markersCache, severityRegistrar);
+      public void run() {
+        RangeMarkerTree.sweep(new RangeMarkerTree.Generator<HighlightInfo>(){
+          @Override
+          public boolean generate(final Processor<HighlightInfo> processor) {
+            return ContainerUtil.process(highlights, processor);
+          }
+        }, new SweepProcessor<HighlightInfo>() {
+          @Override
+          public boolean process(int offset, HighlightInfo info, boolean atStart, Collection<HighlightInfo> overlappingIntervals) {
+            if (!atStart) {
+              return true;
+            }
+            if (info.isFileLevelAnnotation && psiFile != null && psiFile.getViewProvider().isPhysical()) {
+              addFileLevelHighlight(project, group, info, psiFile);
+              changed[0] = true;
+              return true;
+            }
+            if (isWarningCoveredByError(info, overlappingIntervals, severityRegistrar)) {
+              return true;
+            }
+            if (info.getStartOffset() >= range.getStartOffset() && info.getEndOffset() <= range.getEndOffset() && psiFile != null) {
+              createOrReuseHighlighterFor(info, colorsScheme, document, group, psiFile, markup, infosToRemove, ranges2markersCache, severityRegistrar);
+              changed[0] = true;
+            }
+            return true;
+          }
+        });
+        for (RangeHighlighter highlighter : infosToRemove.forAllInGarbageBin()) {
+          highlighter.dispose();
           changed[0] = true;
         }
-        return true;
       }
     });
-    for (RangeHighlighter highlighter : infosToRemove.forAllInGarbageBin()) {
-      highlighter.dispose();
-      changed[0] = true;
-    }
 
     if (changed[0]) {
       clearWhiteSpaceOptimizationFlag(document);
@@ -421,7 +431,7 @@ public class UpdateHighlightersUtil {
       infoEndOffset++; //show something in case of empty highlightinfo
     }
 
-    info.text = document.getText().substring(infoStartOffset, infoEndOffset);
+    info.text = document.getCharsSequence().subSequence(infoStartOffset, infoEndOffset).toString();
     info.group = group;
 
     int layer = getLayer(info, severityRegistrar);
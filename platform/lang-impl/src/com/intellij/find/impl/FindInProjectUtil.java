@@ -19,6 +19,7 @@ package com.intellij.find.impl;
 import com.intellij.BundleBase;
 import com.intellij.find.*;
 import com.intellij.find.ngrams.TrigramIndex;
+import com.intellij.find.ngrams.TrigramQuery;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.LangDataKeys;
@@ -47,7 +48,6 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.*;
 import com.intellij.openapi.wm.ToolWindowId;
 import com.intellij.openapi.wm.ToolWindowManager;
@@ -64,10 +64,7 @@ import com.intellij.util.Function;
 import com.intellij.util.PatternUtil;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
-import com.intellij.util.indexing.FileBasedIndex;
 import gnu.trove.THashSet;
-import gnu.trove.TIntHashSet;
-import gnu.trove.TIntIterator;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -491,30 +488,31 @@ public class FindInProjectUtil {
       scope = ProjectScope.getContentScope(project);
     }
 
-    Set<Integer> keys = new THashSet<Integer>(30);
     final Set<PsiFile> resultFiles = new THashSet<PsiFile>();
     boolean fast = false;
+    boolean trigramsUsed = false;
 
     String stringToFind = findModel.getStringToFind();
     if (TrigramIndex.ENABLED) {
-      TIntHashSet trigrams = TrigramBuilder.buildTrigram(stringToFind);
-      TIntIterator it = trigrams.iterator();
-      while (it.hasNext()) {
-        keys.add(it.next());
-      }
+      TrigramQuery query = findModel.isRegularExpressions()
+                           ? TrigramQuery.forRegExp(stringToFind)
+                           : TrigramQuery.forLiteral(stringToFind);
 
-      if (!keys.isEmpty()) {
-        fast = true;
+      if (query != null) {
+        fast = trigramsUsed = true;
         List<VirtualFile> hits = new ArrayList<VirtualFile>();
-        FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(hits), scope);
+        query.processFiles(scope, new CommonProcessors.CollectProcessor<VirtualFile>(hits));
 
         for (VirtualFile hit : hits) {
-          resultFiles.add(pm.findFile(hit));
+          ContainerUtil.addIfNotNull(resultFiles, pm.findFile(hit));
         }
 
         filterMaskedFiles(resultFiles, fileMaskRegExp);
         if (resultFiles.isEmpty()) return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
       }
+
+      // words of a regular expression are not the words of the text it matches
+      if (findModel.isRegularExpressions()) return new Pair<Boolean, Collection<PsiFile>>(fast, resultFiles);
     }
 
 
@@ -536,7 +534,7 @@ public class FindInProjectUtil {
 
       final List<PsiFile> psiFiles = Arrays.asList(files);
 
-      if (i == 0 && keys.isEmpty()) {
+      if (i == 0 && !trigramsUsed) {
         resultFiles.addAll(psiFiles);
       }
       else {
@@ -585,7 +583,7 @@ public class FindInProjectUtil {
   }
 
   private static boolean canOptimizeForFastWordSearch(@NotNull final FindModel findModel) {
-    return !findModel.isRegularExpressions()
+    return (!findModel.isRegularExpressions() || TrigramIndex.ENABLED)
            && (findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope);
   }
 
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.Processor;
+import com.intellij.util.indexing.FileBasedIndex;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A query against {@link TrigramIndex}: files that may contain the searched text are the ones containing all the trigrams of
+ * at least one of the branches. The query is only a necessary condition, candidate files still have to be searched.
+ */
+public class TrigramQuery {
+  private final List<Set<Integer>> myBranches;
+
+  private TrigramQuery(@NotNull List<Set<Integer>> branches) {
+    myBranches = branches;
+  }
+
+  /**
+   * @return query for files containing the text or null if the text is too short to restrict the set of files
+   */
+  @Nullable
+  public static TrigramQuery forLiteral(@NotNull CharSequence text) {
+    final Set<Integer> trigrams = toSet(TrigramBuilder.buildTrigram(text));
+    return trigrams.isEmpty() ? null : new TrigramQuery(Collections.singletonList(trigrams));
+  }
+
+  /**
+   * Builds the query from literal fragments of the regular expression. Only simple constructs are understood (alternation on
+   * the top level, quantifiers, character classes, escapes), anything that might affect the meaning of literal text makes
+   * the method give up.
+   *
+   * @return query for files that may contain a match of the expression or null if no restriction can be derived
+   */
+  @Nullable
+  public static TrigramQuery forRegExp(@NotNull String regexp) {
+    final List<Set<Integer>> branches = new ArrayList<Set<Integer>>();
+    Set<Integer> branch = new THashSet<Integer>();
+    final StringBuilder literal = new StringBuilder();
+    final int length = regexp.length();
+
+    int i = regexp.startsWith("(?i)") ? 4 : 0;
+    // quoting and flags (like comments mode) change the meaning of the text that follows
+    if (regexp.contains("\\Q") || regexp.indexOf("(?", i) >= 0) return null;
+
+    while (i < length) {
+      final char c = regexp.charAt(i);
+      switch (c) {
+        case '\\':
+          if (i + 1 >= length) return null;
+          final char escaped = regexp.charAt(i + 1);
+          if (Character.isLetterOrDigit(escaped)) {
+            // character class, boundary, back reference or a char code, its arguments aren't literal text
+            flush(literal, branch);
+            i = skipEscape(regexp, i);
+            if (i < 0) return null;
+          }
+          else {
+            literal.append(escaped);
+            i += 2;
+          }
+          continue;
+        case '?':
+        case '*':
+          // the preceding char is optional
+          if (literal.length() > 0) literal.setLength(literal.length() - 1);
+          flush(literal, branch);
+          break;
+        case '{':
+          if (literal.length() > 0) literal.setLength(literal.length() - 1);
+          flush(literal, branch);
+          i = regexp.indexOf('}', i);
+          if (i < 0) return null;
+          break;
+        case '+':
+          flush(literal, branch);
+          break;
+        case '[':
+          flush(literal, branch);
+          i = skipCharacterClass(regexp, i);
+          if (i < 0) return null;
+          continue;
+        case '(':
+          // groups may contain alternatives or be optional as a whole, so they don't contribute to the query
+          flush(literal, branch);
+          i = skipGroup(regexp, i);
+          if (i < 0) return null;
+          if (i < length && (regexp.charAt(i) == '?' || regexp.charAt(i) == '*' || regexp.charAt(i) == '{')) {
+            // don't let the quantifier drop a char from the next literal
+            i++;
+            if (regexp.charAt(i - 1) == '{') {
+              i = regexp.indexOf('}', i);
+              if (i < 0) return null;
+              i++;
+            }
+          }
+          continue;
+        case ')':
+          return null;
+        case '|':
+          flush(literal, branch);
+          if (branch.isEmpty()) return null;
+          branches.add(branch);
+          branch = new THashSet<Integer>();
+          break;
+        case '.':
+        case '^':
+        case '$':
+          flush(literal, branch);
+          break;
+        default:
+          literal.append(c);
+      }
+      i++;
+    }
+    flush(literal, branch);
+    if (branch.isEmpty()) return null;
+    branches.add(branch);
+    return new TrigramQuery(branches);
+  }
+
+  private static void flush(@NotNull StringBuilder literal, @NotNull Set<Integer> branch) {
+    branch.addAll(toSet(TrigramBuilder.buildTrigram(literal)));
+    literal.setLength(0);
+  }
+
+  // returns the offset after the letter or digit escape starting at the backslash or -1 if it's malformed
+  private static int skipEscape(@NotNull String regexp, int start) {
+    final int length = regexp.length();
+    int i = start + 2;
+    switch (regexp.charAt(start + 1)) {
+      case 'x':
+        if (i < length && regexp.charAt(i) == '{') return skipBraces(regexp, i);
+        return skipChars(regexp, i, 2, "0123456789abcdefABCDEF");
+      case 'u':
+        return skipChars(regexp, i, 4, "0123456789abcdefABCDEF");
+      case '0':
+        while (i < length && i < start + 5 && regexp.charAt(i) >= '0' && regexp.charAt(i) <= '7') i++;
+        return i > start + 2 ? i : -1;
+      case 'c':
+        return i < length ? i + 1 : -1;
+      case 'k':
+        if (i >= length || regexp.charAt(i) != '<') return -1;
+        i = regexp.indexOf('>', i);
+        return i < 0 ? -1 : i + 1;
+      case 'p':
+      case 'P':
+        if (i < length && regexp.charAt(i) == '{') return skipBraces(regexp, i);
+        return i < length ? i + 1 : -1;
+      default:
+        // back references take as many digits as there are groups, so the following digits can't be relied on either
+        if (Character.isDigit(regexp.charAt(start + 1))) {
+          while (i < length && Character.isDigit(regexp.charAt(i))) i++;
+        }
+        return i;
+    }
+  }
+
+  private static int skipBraces(@NotNull String regexp, int start) {
+    final int end = regexp.indexOf('}', start);
+    return end < 0 ? -1 : end + 1;
+  }
+
+  private static int skipChars(@NotNull String regexp, int start, int count, @NotNull String allowed) {
+    if (start + count > regexp.length()) return -1;
+    for (int i = start; i < start + count; i++) {
+      if (allowed.indexOf(regexp.charAt(i)) < 0) return -1;
+    }
+    return start + count;
+  }
+
+  // returns the offset after the closing bracket or -1
+  private static int skipCharacterClass(@NotNull String regexp, int start) {
+    int depth = 0;
+    for (int i = start; i < regexp.length(); i++) {
+      final char c = regexp.charAt(i);
+      if (c == '\\') {
+        i++;
+      }
+      else if (c == '[') {
+        depth++;
+        if (i + 1 < regexp.length() && regexp.charAt(i + 1) == '^') i++;
+        if (i + 1 < regexp.length() && regexp.charAt(i + 1) == ']') i++;
+      }
+      else if (c == ']' && --depth == 0) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  // returns the offset after the closing parenthesis or -1
+  private static int skipGroup(@NotNull String regexp, int start) {
+    int depth = 0;
+    for (int i = start; i < regexp.length(); i++) {
+      final char c = regexp.charAt(i);
+      if (c == '\\') {
+        i++;
+      }
+      else if (c == '[') {
+        i = skipCharacterClass(regexp, i);
+        if (i < 0) return -1;
+        i--;
+      }
+      else if (c == '(') {
+        depth++;
+      }
+      else if (c == ')' && --depth == 0) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  @NotNull
+  private static Set<Integer> toSet(@NotNull TIntHashSet trigrams) {
+    final Set<Integer> result = new THashSet<Integer>(trigrams.size());
+    for (TIntIterator it = trigrams.iterator(); it.hasNext(); ) {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  /**
+   * @return the alternatives of the query, each being a set of trigrams that must all be present in a file
+   */
+  @NotNull
+  public List<Set<Integer>> getBranches() {
+    return myBranches;
+  }
+
+  public boolean processFiles(@NotNull GlobalSearchScope scope, @NotNull final Processor<VirtualFile> processor) {
+    final FileBasedIndex index = FileBasedIndex.getInstance();
+    if (myBranches.size() == 1) {
+      return index.getFilesWithKey(TrigramIndex.INDEX_ID, myBranches.get(0), processor, scope);
+    }
+
+    final Set<VirtualFile> processed = new THashSet<VirtualFile>();
+    for (Set<Integer> branch : myBranches) {
+      final boolean result = index.getFilesWithKey(TrigramIndex.INDEX_ID, branch, new Processor<VirtualFile>() {
+        @Override
+        public boolean process(VirtualFile file) {
+          return !processed.add(file) || processor.process(file);
+        }
+      }, scope);
+      if (!result) return false;
+    }
+    return true;
+  }
+}
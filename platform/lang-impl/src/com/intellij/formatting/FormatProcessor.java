@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,13 +21,14 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.TextChange;
 import com.intellij.openapi.editor.ex.DocumentEx;
-import com.intellij.openapi.editor.impl.BulkChangesMerger;
+import com.intellij.openapi.editor.impl.DocumentImpl;
 import com.intellij.openapi.editor.impl.TextChangeImpl;
 import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.codeStyle.CodeStyleSettings;
 import com.intellij.psi.codeStyle.CommonCodeStyleSettings;
 import com.intellij.psi.formatter.DocumentBasedFormattingModel;
+import com.intellij.util.text.ImmutableText;
 import com.intellij.util.ui.UIUtil;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -341,7 +342,7 @@ class FormatProcessor {
         whiteSpace.getEndOffset(), false
       );
       if (changes.size() > 10000) {
-        CharSequence mergeResult = BulkChangesMerger.INSTANCE.mergeToCharSequence(document.getChars(), document.getTextLength(), changes);
+        CharSequence mergeResult = mergeChanges(document, changes);
         document.replaceString(0, document.getTextLength(), mergeResult);
         shift += currentIterationShift;
         currentIterationShift = 0;
@@ -351,12 +352,28 @@ class FormatProcessor {
       currentIterationShift += change.getDiff();
       changes.add(change);
     }
-    CharSequence mergeResult = BulkChangesMerger.INSTANCE.mergeToCharSequence(document.getChars(), document.getTextLength(), changes);
+    CharSequence mergeResult = mergeChanges(document, changes);
     document.replaceString(0, document.getTextLength(), mergeResult);
     cleanupBlocks(blocksToModify);
     return true;
   }
 
+  /**
+   * @param changes  changes sorted by their offsets in the current document text, they are not expected to intersect
+   * @return         the document text with the changes applied
+   */
+  @NotNull
+  private static CharSequence mergeChanges(@NotNull Document document, @NotNull List<TextChange> changes) {
+    CharSequence chars = document instanceof DocumentImpl ? ((DocumentImpl)document).getImmutableCharSequence() : document.getCharsSequence();
+    ImmutableText text = ImmutableText.valueOf(chars);
+    // applied from the end, so the offsets of the remaining changes stay valid
+    for (int i = changes.size() - 1; i >= 0; i--) {
+      TextChange change = changes.get(i);
+      text = text.replace(change.getStart(), change.getEnd(), change.getText());
+    }
+    return text;
+  }
+
   private static void cleanupBlocks(List<LeafBlockWrapper> blocks) {
     for (LeafBlockWrapper block : blocks) {
       block.getParent().dispose();
@@ -115,6 +115,12 @@ public class LayeredLexerEditorHighlighter extends LexerEditorHighlighter {
     }
   }
 
+  @Override
+  protected boolean supportsBackgroundRelexing() {
+    // layers are updated in the write action
+    return false;
+  }
+
   @Override
   public void setText(final CharSequence text) {
     // do NOT synchronize before updateLayers due to deadlock with PsiLock
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2010 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -75,6 +75,9 @@ public abstract class PsiTreeChangePreprocessorBase implements PsiTreeChangePrep
     if (!changedInsideCodeBlock) {
       myModificationTracker.incOutOfCodeBlockModificationCounter();
     }
+    else {
+      myModificationTracker.codeBlockChanged(event.getFile());
+    }
   }
 
   protected abstract boolean isInsideCodeBlock(PsiElement element);
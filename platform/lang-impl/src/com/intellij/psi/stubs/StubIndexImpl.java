@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -59,6 +59,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 
@@ -76,6 +78,12 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
   private final Map<StubIndexKey<?,?>, MyIndex<?>> myIndices = new THashMap<StubIndexKey<?,?>, MyIndex<?>>();
   private final TObjectIntHashMap<ID<?, ?>> myIndexIdToVersionMap = new TObjectIntHashMap<ID<?, ?>>();
 
+  // time spent by readers and writers waiting for the locks of the stub indices, only contended acquisitions are counted
+  private static final AtomicLong ourReadLockWaits = new AtomicLong();
+  private static final AtomicLong ourReadLockWaitNanos = new AtomicLong();
+  private static final AtomicLong ourWriteLockWaits = new AtomicLong();
+  private static final AtomicLong ourWriteLockWaitNanos = new AtomicLong();
+
   private StubIndexState myPreviouslyRegistered;
 
   public StubIndexImpl(FileBasedIndex fileBasedIndex /* need this to ensure initialization order*/ ) throws IOException {
@@ -215,7 +223,7 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
       try {
         // disable up-to-date check to avoid locks on attempt to acquire index write lock while holding at the same time the readLock for this index
         FileBasedIndexImpl.disableUpToDateCheckForCurrentThread();
-        index.getReadLock().lock();
+        lock(index.getReadLock(), false);
         final ValueContainer<StubIdList> container = index.getData(key);
 
         final FileBasedIndexImpl.ProjectIndexableFilesFilter projectFilesFilter = fileBasedIndex.projectIndexableFiles(project);
@@ -400,11 +408,42 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
   }
 
   public void dispose() {
+    LOG.info("Stub index locks: " + getLockStatistics());
     for (UpdatableIndex index : myIndices.values()) {
       index.dispose();
     }
   }
 
+  /**
+   * Locks the lock of a stub index, the time spent waiting for it is added to the {@link #getLockStatistics() statistics}.
+   */
+  static void lock(@NotNull Lock lock, boolean write) {
+    // unlike tryLock(), a timed tryLock() doesn't let readers barge past the queued writers
+    try {
+      if (lock.tryLock(0, TimeUnit.NANOSECONDS)) return;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    final long started = System.nanoTime();
+    lock.lock();
+    final long waited = System.nanoTime() - started;
+    if (write) {
+      ourWriteLockWaits.incrementAndGet();
+      ourWriteLockWaitNanos.addAndGet(waited);
+    }
+    else {
+      ourReadLockWaits.incrementAndGet();
+      ourReadLockWaitNanos.addAndGet(waited);
+    }
+  }
+
+  @NotNull
+  public static String getLockStatistics() {
+    return "read waits: " + ourReadLockWaits.get() + " (" + ourReadLockWaitNanos.get() / 1000000 + " ms), " +
+           "write waits: " + ourWriteLockWaits.get() + " (" + ourWriteLockWaitNanos.get() / 1000000 + " ms)";
+  }
+
   public void setDataBufferingEnabled(final boolean enabled) {
     for (UpdatableIndex index : myIndices.values()) {
       final IndexStorage indexStorage = ((MapReduceIndex)index).getStorage();
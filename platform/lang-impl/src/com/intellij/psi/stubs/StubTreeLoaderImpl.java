@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -22,13 +22,20 @@ import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.vfs.JarFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.impl.source.PsiFileImpl;
 import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.indexing.*;
+import com.intellij.util.io.OffHeapLruCache;
+import com.intellij.util.io.PagedFileStorage;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -38,6 +45,11 @@ import java.util.List;
 public class StubTreeLoaderImpl extends StubTreeLoader {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.stubs.StubTreeLoaderImpl");
 
+  // serialized stubs built for binary files in jars (i.e. library classes) while they are not available from the index,
+  // the entries are versioned by the timestamp of the jar
+  private static final OffHeapLruCache<String> ourJarStubCache =
+    new OffHeapLruCache<String>(SystemProperties.getIntProperty("idea.jar.stub.cache", 32) * (long)PagedFileStorage.MB);
+
   @Override
   @Nullable
   public ObjectStubTree readOrBuild(Project project, final VirtualFile vFile, @Nullable PsiFile psiFile) {
@@ -50,6 +62,15 @@ public class StubTreeLoaderImpl extends StubTreeLoader {
       return null;
     }
 
+    final VirtualFile jarFile = vFile.getFileType().isBinary() ? JarFileSystem.getInstance().getVirtualFileForJar(vFile) : null;
+    final long jarStamp = jarFile != null ? jarFile.getTimeStamp() : 0;
+    if (jarFile != null) {
+      final Stub cached = readFromJarStubCache(vFile, jarStamp);
+      if (cached instanceof PsiFileStub) {
+        return new StubTree((PsiFileStub)cached);
+      }
+    }
+
     try {
       final FileContent fc = new FileContentImpl(vFile, vFile.contentsToByteArray());
       fc.putUserData(IndexingDataKeys.PROJECT, project);
@@ -70,6 +91,11 @@ public class StubTreeLoaderImpl extends StubTreeLoader {
         }
       }
       if (element instanceof PsiFileStub) {
+        if (jarFile != null) {
+          final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+          SerializationManagerEx.getInstanceEx().serialize(element, bytes);
+          ourJarStubCache.put(vFile.getPath(), jarStamp, bytes.getInternalBuffer(), 0, bytes.size());
+        }
         return new StubTree((PsiFileStub)element);
       }
     }
@@ -80,6 +106,28 @@ public class StubTreeLoaderImpl extends StubTreeLoader {
     return null;
   }
 
+  @Nullable
+  private static Stub readFromJarStubCache(@NotNull VirtualFile vFile, long jarStamp) {
+    final byte[] bytes = ourJarStubCache.get(vFile.getPath(), jarStamp);
+    if (bytes == null) return null;
+    try {
+      return SerializationManagerEx.getInstanceEx().deserialize(new ByteArrayInputStream(bytes));
+    }
+    catch (SerializerNotFoundException e) {
+      LOG.info(e);
+      ourJarStubCache.remove(vFile.getPath());
+      return null;
+    }
+  }
+
+  /**
+   * @return hit rate and memory usage of the off-heap cache of stubs built for files in jars
+   */
+  @NotNull
+  public static OffHeapLruCache.Statistics getJarStubCacheStatistics() {
+    return ourJarStubCache.getStatistics();
+  }
+
   @Override
   @Nullable
   public ObjectStubTree readFromVFile(Project project, final VirtualFile vFile) {
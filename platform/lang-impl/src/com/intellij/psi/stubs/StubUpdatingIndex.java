@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -267,7 +267,7 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       try {
         // first write-lock affected stub indices to avoid deadlocks
         for (StubIndexKey key : allStubIndices) {
-          stubIndex.getWriteLock(key).lock();
+          StubIndexImpl.lock(stubIndex.getWriteLock(key), true);
         }
 
         try {
@@ -379,7 +379,7 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       try {
         for (StubIndexKey key : allStubIndexKeys) {
           //noinspection ConstantConditions
-          stubIndex.getWriteLock(key).lock();
+          StubIndexImpl.lock(stubIndex.getWriteLock(key), true);
         }
         getWriteLock().lock();
         if (stubIndex != null) {
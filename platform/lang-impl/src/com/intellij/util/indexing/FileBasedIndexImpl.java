@@ -31,6 +31,7 @@ import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.impl.DocumentSnapshot;
 import com.intellij.openapi.editor.impl.EditorHighlighterCache;
 import com.intellij.openapi.extensions.Extensions;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
@@ -557,7 +558,11 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       @Override
       protected Collection<K> doGet(Integer integer) throws IOException {
         if (isBufferingMode.get()) {
-          final Collection<K> collection = tempMap.get(integer);
+          final Collection<K> collection;
+          // doPut and doRemove fill tempMap under the same lock
+          synchronized (myEnumerator) {
+            collection = tempMap.get(integer);
+          }
           if (collection != null) {
             return collection;
           }
@@ -1084,10 +1089,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         public TIntHashSet convert(@NotNull UpdatableIndex<K, V, FileContent> index) throws StorageException {
           TIntHashSet mainIntersection = null;
 
-          for (K dataKey : dataKeys) {
+          for (final ValueContainer<V> container : getContainersBySize(index, dataKeys)) {
             ProgressManager.checkCanceled();
             final TIntHashSet copy = new TIntHashSet();
-            final ValueContainer<V> container = index.getData(dataKey);
 
             for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
               final V value = valueIt.next();
@@ -1134,6 +1138,36 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return processExceptions(indexId, null, filter, convertor);
   }
 
+  // intersecting starting from the smallest posting lists keeps the intermediate sets small
+  @NotNull
+  private static <K, V> List<ValueContainer<V>> getContainersBySize(@NotNull UpdatableIndex<K, V, FileContent> index,
+                                                                    @NotNull Collection<K> dataKeys) throws StorageException {
+    final List<ValueContainer<V>> containers = new ArrayList<ValueContainer<V>>(dataKeys.size());
+    final TObjectIntHashMap<ValueContainer<V>> sizes = new TObjectIntHashMap<ValueContainer<V>>(dataKeys.size());
+    for (K dataKey : dataKeys) {
+      ProgressManager.checkCanceled();
+      final ValueContainer<V> container = index.getData(dataKey);
+      int size = 0;
+      for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
+        size += container.getInputIdsIterator(valueIt.next()).size();
+      }
+      if (size == 0) {
+        return Collections.singletonList(container);
+      }
+      containers.add(container);
+      sizes.put(container, size);
+    }
+    if (containers.size() > 1) {
+      Collections.sort(containers, new Comparator<ValueContainer<V>>() {
+        @Override
+        public int compare(ValueContainer<V> c1, ValueContainer<V> c2) {
+          return sizes.get(c1) - sizes.get(c2);
+        }
+      });
+    }
+    return containers;
+  }
+
   private static boolean processVirtualFiles(@NotNull TIntHashSet ids,
                                              @NotNull final GlobalSearchScope filter,
                                              @NotNull final Processor<VirtualFile> processor) {
@@ -1407,20 +1441,21 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   }
 
   private static class AuthenticContent implements DocumentContent {
-    private final Document myDocument;
+    // the text and the stamp have to match even if the document is changed while being indexed
+    private final DocumentSnapshot mySnapshot;
 
     private AuthenticContent(final Document document) {
-      myDocument = document;
+      mySnapshot = DocumentSnapshot.of(document);
     }
 
     @Override
     public String getText() {
-      return myDocument.getText();
+      return mySnapshot.getText().toString();
     }
 
     @Override
     public long getModificationStamp() {
-      return myDocument.getModificationStamp();
+      return mySnapshot.getModificationStamp();
     }
   }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -118,6 +118,8 @@ public class JobImpl<T> implements Job<T> {
       for (PrioritizedFutureTask future : tasks) {
         future.run();
       }
+      // the futures keep the exceptions of the tasks, rethrow them as if the tasks were scheduled
+      waitForTermination();
       return null;
     }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -29,6 +29,8 @@ import org.jetbrains.annotations.NotNull;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author cdr
@@ -41,26 +43,45 @@ public class JobLauncherImpl extends JobLauncher {
                                                       boolean failFastOnAcquireReadAction,
                                                       @NotNull final Processor<T> thingProcessor) throws ProcessCanceledException {
     final Job<String> job = new JobImpl<String>(Job.DEFAULT_PRIORITY, failFastOnAcquireReadAction);
+    final ChunkQueue queue = new ChunkQueue(things.size(), Math.min(JobSchedulerImpl.CORES_COUNT, things.size()));
+    final Thread caller = Thread.currentThread();
+    final JobMetrics metrics = new JobMetrics();
 
-    final int chunkSize = Math.max(1, things.size() / JobSchedulerImpl.CORES_COUNT / 20);
-    for (int i = 0; i < things.size(); i += chunkSize) {
-      // this job chunk is i..i+chunkSize-1
-      final int finalI = i;
+    // every worker takes chunks from the shared queue until it's empty, so a thread stuck with a huge element
+    // doesn't prevent the others from processing the rest of the list
+    for (int i = 0; i < queue.myWorkers; i++) {
       job.addTask(new Runnable() {
         public void run() {
+          if (Thread.currentThread() == caller) {
+            metrics.myStolenTasks.incrementAndGet();
+          }
+          boolean completed = false;
           try {
-            for (int k = finalI; k < finalI + chunkSize && k < things.size(); k++) {
-              T thing = things.get(k);
-              if (!thingProcessor.process(thing)) {
-                job.cancel();
-                break;
+            final int[] chunk = new int[2];
+            while (!queue.myStopped && queue.claimChunk(chunk)) {
+              metrics.myChunks.incrementAndGet();
+              for (int k = chunk[0]; k < chunk[1]; k++) {
+                T thing = things.get(k);
+                if (!thingProcessor.process(thing)) {
+                  queue.myStopped = true;
+                  job.cancel();
+                  break;
+                }
               }
             }
+            completed = true;
           }
           catch (ProcessCanceledException e) {
             job.cancel();
             throw e;
           }
+          finally {
+            if (!completed) {
+              // the others shouldn't start new chunks after a failure
+              queue.myStopped = true;
+            }
+            metrics.workerFinished();
+          }
         }
       });
     }
@@ -75,9 +96,112 @@ public class JobLauncherImpl extends JobLauncher {
       job.cancel();
       LOG.error(throwable);
     }
+    finally {
+      metrics.jobFinished(things.size(), queue.myWorkers);
+    }
     return !job.isCanceled();
   }
 
+  /**
+   * Hands out the indices of the list being processed in chunks. Chunk sizes are proportional to the number of the elements
+   * left (guided self-scheduling): the first chunks are big to keep the overhead low, the last ones are small so that all
+   * the workers finish at about the same time.
+   */
+  static class ChunkQueue {
+    private final int mySize;
+    private final int myWorkers;
+    private final AtomicInteger myNext = new AtomicInteger();
+    private volatile boolean myStopped;
+
+    ChunkQueue(int size, int workers) {
+      mySize = size;
+      myWorkers = Math.max(1, workers);
+    }
+
+    /**
+     * @param chunk receives the bounds of the claimed chunk: start inclusive, end exclusive
+     * @return false if there is nothing left
+     */
+    boolean claimChunk(@NotNull int[] chunk) {
+      while (true) {
+        final int start = myNext.get();
+        if (start >= mySize) return false;
+        final int end = start + Math.max(1, (mySize - start) / (myWorkers * 2));
+        if (myNext.compareAndSet(start, end)) {
+          chunk[0] = start;
+          chunk[1] = end;
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Metrics of a single {@link #invokeConcurrentlyForAll} run. Idle time is the time the workers which ran out of chunks
+   * spent waiting for the others to complete.
+   */
+  private static class JobMetrics {
+    private final long myStarted = System.nanoTime();
+    private final AtomicInteger myChunks = new AtomicInteger();
+    private final AtomicInteger myStolenTasks = new AtomicInteger();
+    private final AtomicLong myFinishTimesSum = new AtomicLong();
+    private final AtomicInteger myFinishedWorkers = new AtomicInteger();
+
+    private void workerFinished() {
+      myFinishTimesSum.addAndGet(System.nanoTime() - myStarted);
+      myFinishedWorkers.incrementAndGet();
+    }
+
+    private void jobFinished(int size, int workers) {
+      final long elapsed = System.nanoTime() - myStarted;
+      final int finished = myFinishedWorkers.get();
+      final long idle = Math.max(0, elapsed * finished - myFinishTimesSum.get());
+      ourJobs.incrementAndGet();
+      ourChunks.addAndGet(myChunks.get());
+      ourStolenTasks.addAndGet(myStolenTasks.get());
+      ourIdleNanos.addAndGet(idle);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(size + " elements, " + workers + " workers: " + myChunks.get() + " chunks, " + myStolenTasks.get() +
+                  " run by the caller, idle " + idle / 1000 + " us of " + elapsed * workers / 1000 + " us");
+      }
+    }
+  }
+
+  private static final AtomicLong ourJobs = new AtomicLong();
+  private static final AtomicLong ourChunks = new AtomicLong();
+  private static final AtomicLong ourStolenTasks = new AtomicLong();
+  private static final AtomicLong ourIdleNanos = new AtomicLong();
+
+  /**
+   * @return totals of the jobs run by {@link #invokeConcurrentlyUnderProgress} since the start
+   */
+  @NotNull
+  public static Statistics getStatistics() {
+    return new Statistics(ourJobs.get(), ourChunks.get(), ourStolenTasks.get(), ourIdleNanos.get());
+  }
+
+  public static class Statistics {
+    public final long jobs;
+    /** chunks of elements processed */
+    public final long chunks;
+    /** worker tasks run by the waiting callers themselves */
+    public final long runByCaller;
+    /** time the workers spent idle waiting for the others */
+    public final long idleNanos;
+
+    private Statistics(long _jobs, long _chunks, long _runByCaller, long _idleNanos) {
+      jobs = _jobs;
+      chunks = _chunks;
+      runByCaller = _runByCaller;
+      idleNanos = _idleNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "jobs: " + jobs + ", chunks: " + chunks + ", run by the caller: " + runByCaller + ", idle: " + idleNanos / 1000000 + " ms";
+    }
+  }
+
   /**
    * Schedules concurrent execution of #thingProcessor over each element of #things and waits for completion
    * With checkCanceled in each thread delegated to our current progress
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@
 package com.intellij.concurrency;
 
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NonNls;
 
 import java.util.concurrent.PriorityBlockingQueue;
@@ -29,6 +30,7 @@ import java.util.concurrent.TimeUnit;
 
 @NonNls
 public class JobSchedulerImpl extends JobScheduler implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.concurrency.JobSchedulerImpl");
   public static final int CORES_COUNT = /*1;//*/ Runtime.getRuntime().availableProcessors();
 
   private static final ThreadFactory WORKERS_FACTORY = new ThreadFactory() {
@@ -52,6 +54,7 @@ public class JobSchedulerImpl extends JobScheduler implements Disposable {
 
   public void dispose() {
     ((ThreadPoolExecutor)getScheduler()).getQueue().clear();
+    LOG.info("Concurrent jobs: " + JobLauncherImpl.getStatistics());
   }
 
   static Runnable stealTask() {
@@ -58,5 +58,9 @@ public interface MarkupModelEx extends MarkupModel {
   // runs change attributes action and fires highlighterChanged event if there were changes
   void changeAttributesInBatch(@NotNull RangeHighlighterEx highlighter, @NotNull Consumer<RangeHighlighterEx> changeAttributesAction);
 
+  // optimization: highlighters added by the operation are inserted into the model all at once when it finishes
+  // (or earlier, when the model is queried or modified otherwise)
+  void runBatchOperation(@NotNull Runnable operation);
+
   boolean sweep(int start, int end, @NotNull final SweepProcessor<RangeHighlighterEx> sweepProcessor);
 }
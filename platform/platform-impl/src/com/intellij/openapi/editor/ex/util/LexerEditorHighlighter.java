@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,7 @@ package com.intellij.openapi.editor.ex.util;
 
 import com.intellij.lexer.Lexer;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.HighlighterColors;
@@ -28,12 +29,14 @@ import com.intellij.openapi.editor.ex.PrioritizedDocumentListener;
 import com.intellij.openapi.editor.highlighter.EditorHighlighter;
 import com.intellij.openapi.editor.highlighter.HighlighterClient;
 import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.openapi.editor.impl.DocumentSnapshot;
 import com.intellij.openapi.editor.impl.EditorDocumentPriorities;
 import com.intellij.openapi.editor.markup.TextAttributes;
 import com.intellij.openapi.fileTypes.PlainSyntaxHighlighter;
 import com.intellij.openapi.fileTypes.SyntaxHighlighter;
 import com.intellij.openapi.project.DumbAwareRunnable;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.ui.UIUtil;
@@ -53,6 +56,14 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
   private EditorColorsScheme myScheme;
   private final int myInitialState;
 
+  // number of chars after the change which are re-lexed synchronously when background re-lexing is on
+  private static final int RELEX_BUDGET = 10000;
+  private static final int RELEX_BATCH_SIZE = 1024;
+  private int myInvalidOffset = -1; // tokens starting from this offset may be stale and are to be re-lexed in background
+  private boolean myRelexScheduled;
+  private long myModificationStamp; // stamp of the document text the segments correspond to
+  private int myUpdateCount; // incremented on every update of the segments
+
   public LexerEditorHighlighter(@NotNull SyntaxHighlighter highlighter, @NotNull EditorColorsScheme scheme) {
     myScheme = scheme;
     myLexer = highlighter.getHighlightingLexer();
@@ -143,6 +154,8 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
 
     if (document instanceof DocumentEx && ((DocumentEx)document).isInBulkUpdate()) {
       mySegments.removeAll();
+      myInvalidOffset = -1;
+      myUpdateCount++;
       return;
     }
 
@@ -151,6 +164,12 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
       return;
     }
 
+    myUpdateCount++;
+    myModificationStamp = document.getModificationStamp();
+    if (myInvalidOffset >= 0 && e.getOffset() < myInvalidOffset) {
+      myInvalidOffset = Math.max(e.getOffset(), myInvalidOffset + e.getNewLength() - e.getOldLength());
+    }
+
     CharSequence text = document.getCharsSequence();
     int oldStartOffset = e.getOffset();
 
@@ -179,6 +198,8 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
 
     int lastTokenStart = -1;
     int lastLexerState = -1;
+    final int relexEnd = isBackgroundRelexingEnabled() ? newEndOffset + RELEX_BUDGET : Integer.MAX_VALUE;
+    int relexStoppedAt = -1;
 
     while (myLexer.getTokenType() != null) {
       if (startIndex >= oldStartIndex) break;
@@ -231,6 +252,21 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
           break;
         }
       }
+      if (tokenStart >= relexEnd) {
+        // the rest is re-lexed in background, the old tokens are kept meanwhile
+        int lengthDelta = e.getNewLength() - e.getOldLength();
+        int index = mySegments.findSegmentIndex(tokenStart - lengthDelta);
+        if (mySegments.getSegmentStart(index) + lengthDelta != tokenStart) {
+          insertSegments.setElementAt(insertSegmentCount, tokenStart, mySegments.getSegmentEnd(index) + lengthDelta,
+                                      mySegments.getSegmentData(index));
+          insertSegmentCount++;
+          index++;
+        }
+        repaintEnd = tokenStart;
+        oldEndIndex = index;
+        relexStoppedAt = tokenStart;
+        break;
+      }
       insertSegments.setElementAt(insertSegmentCount, tokenStart, tokenEnd, data);
       insertSegmentCount++;
       myLexer.advance();
@@ -259,6 +295,13 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
     mySegments.shiftSegments(oldEndIndex, shift);
     mySegments.replace(startIndex, oldEndIndex, insertSegments);
 
+    if (relexStoppedAt >= 0) {
+      myInvalidOffset = myInvalidOffset < 0 ? relexStoppedAt : Math.min(myInvalidOffset, relexStoppedAt);
+    }
+    if (myInvalidOffset >= 0) {
+      scheduleRelexing();
+    }
+
     if (insertSegmentCount == 0 ||
         oldEndIndex == startIndex + 1 && insertSegmentCount == 1 && data == mySegments.getSegmentData(startIndex)) {
       return;
@@ -267,6 +310,126 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
     myEditor.repaint(startOffset, repaintEnd);
   }
 
+  /**
+   * @return <code>true</code> if the text far beyond the changed place may be re-lexed in background, see {@link #RELEX_BUDGET}.
+   * A separate lexer is requested from the syntax highlighter for that.
+   */
+  protected boolean supportsBackgroundRelexing() {
+    return true;
+  }
+
+  private boolean isBackgroundRelexingEnabled() {
+    return myEditor != null && supportsBackgroundRelexing() && Registry.is("editor.background.relexing");
+  }
+
+  private void scheduleRelexing() {
+    if (myRelexScheduled) return;
+    myRelexScheduled = true;
+    final Document document = getDocument();
+    assert document != null;
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        relexInBackground(document);
+      }
+    });
+  }
+
+  // should be called under the lock when the update can't be completed
+  private void relexingCancelled(@NotNull Document document) {
+    myRelexScheduled = false;
+    if (myInvalidOffset >= 0 && document.getModificationStamp() == myModificationStamp) {
+      // otherwise documentChanged() is yet to come and will reschedule it
+      scheduleRelexing();
+    }
+  }
+
+  private void relexInBackground(@NotNull final Document document) {
+    final DocumentSnapshot snapshot = DocumentSnapshot.of(document);
+    final int updateCount;
+    final int restartIndex;
+    final int restartOffset;
+    final int invalidOffset;
+    synchronized (this) {
+      if (myInvalidOffset < 0 || snapshot.getModificationStamp() != myModificationStamp) {
+        relexingCancelled(document);
+        return;
+      }
+      updateCount = myUpdateCount;
+      invalidOffset = myInvalidOffset;
+      int index = mySegments.findSegmentIndex(invalidOffset);
+      // the segments starting from the invalid offset are the old ones, their states can't be trusted
+      if (index > 0 && mySegments.getSegmentStart(index) >= invalidOffset) {
+        index--;
+      }
+      while (index > 0 && !isInitialState(mySegments.getSegmentData(index))) {
+        index--;
+      }
+      restartIndex = index;
+      restartOffset = mySegments.getSegmentStart(index);
+    }
+
+    final CharSequence text = snapshot.getText();
+    final Lexer lexer = myHighlighter.getHighlightingLexer();
+    lexer.start(text, restartOffset, text.length(), myInitialState);
+    final SegmentArrayWithData tokens = new SegmentArrayWithData();
+    int tokenCount = 0;
+    int resyncIndex = -1;
+    int checkedCount = 0;
+    while (resyncIndex < 0) {
+      IElementType tokenType = lexer.getTokenType();
+      if (tokenType != null) {
+        tokens.setElementAt(tokenCount++, lexer.getTokenStart(), lexer.getTokenEnd(), packData(tokenType, lexer.getState()));
+        lexer.advance();
+        if (tokenCount - checkedCount < RELEX_BATCH_SIZE) continue;
+      }
+      synchronized (this) {
+        if (updateCount != myUpdateCount) {
+          relexingCancelled(document);
+          return;
+        }
+        // look for the token from which the old tokens are valid again
+        for (; checkedCount < tokenCount; checkedCount++) {
+          int tokenStart = tokens.getSegmentStart(checkedCount);
+          int data = tokens.getSegmentData(checkedCount);
+          if (tokenStart < invalidOffset || !isInitialState(data)) continue;
+          int index = mySegments.findSegmentIndex(tokenStart);
+          if (mySegments.getSegmentStart(index) == tokenStart && mySegments.getSegmentData(index) == data) {
+            resyncIndex = index;
+            break;
+          }
+        }
+      }
+      if (resyncIndex < 0 && tokenType == null) {
+        resyncIndex = Integer.MAX_VALUE;
+      }
+    }
+    if (checkedCount < tokenCount) {
+      tokens.remove(checkedCount, tokenCount);
+    }
+
+    final int oldEndIndex = resyncIndex;
+    ApplicationManager.getApplication().invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        int repaintEnd;
+        synchronized (LexerEditorHighlighter.this) {
+          if (updateCount != myUpdateCount) {
+            relexingCancelled(document);
+            return;
+          }
+          int endIndex = Math.min(oldEndIndex, mySegments.getSegmentCount());
+          repaintEnd = endIndex < mySegments.getSegmentCount() ? mySegments.getSegmentStart(endIndex) : text.length();
+          mySegments.replace(restartIndex, endIndex, tokens);
+          myUpdateCount++;
+          myInvalidOffset = -1;
+          myRelexScheduled = false;
+        }
+        myEditor.repaint(restartOffset, repaintEnd);
+      }
+    }, ModalityState.any());
+  }
+
   @Override
   public void beforeDocumentChange(DocumentEvent event) {
   }
@@ -303,6 +466,12 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
   }
 
   private void doSetText(final CharSequence text) {
+    myUpdateCount++;
+    myInvalidOffset = -1;
+    final Document document = getDocument();
+    if (document != null) {
+      myModificationStamp = document.getModificationStamp();
+    }
     final TokenProcessor processor = createTokenProcessor(0);
     myLexer.start(text, 0, text.length(),myInitialState);
     mySegments.removeAll();
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.EventListener;
+
+/**
+ * Receives the cost of painting the editor contents, for performance diagnostics.
+ *
+ * @see EditorImpl#addPaintListener(EditorPaintListener, com.intellij.openapi.Disposable)
+ */
+public interface EditorPaintListener extends EventListener {
+  /**
+   * Is called in the event dispatch thread after the editor contents in the given area has been painted.
+   *
+   * @param paintTimeNanos time the painting took
+   */
+  void editorPainted(@NotNull EditorImpl editor, @NotNull Rectangle clip, long paintTimeNanos);
+}
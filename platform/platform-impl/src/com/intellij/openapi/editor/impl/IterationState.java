@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -35,6 +35,13 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Iterates over the segments of the editor text having the same merged text attributes.
+ * <p/>
+ * The state is advanced for every segment painted, so the iteration itself doesn't allocate anything: the list of the current
+ * highlighters is reused and sorted only when it has changed, and the merged attributes are recalculated only when
+ * something affecting them has changed since the previous segment (the instance returned by {@link #getMergedAttributes()} is reused).
+ */
 public final class IterationState {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.impl.IterationState");
   
@@ -90,6 +97,7 @@ public final class IterationState {
 
   private final int mySelectionEnd;
   private final List<RangeHighlighterEx> myCurrentHighlighters = new ArrayList<RangeHighlighterEx>();
+  private boolean myCurrentHighlightersChanged = true; // the list should be sorted and the merged attributes recalculated
 
   private final FoldingModelEx myFoldingModel;
 
@@ -106,6 +114,15 @@ public final class IterationState {
   private final DocumentEx myDocument;
   private final EditorEx myEditor;
   private final Color myReadOnlyColor;
+  private final TextAttributes myGuardedBlockAttributes;
+
+  // the state the merged attributes were calculated for
+  private TextAttributes myMergedSyntax;
+  private int myMergedFlags = -1;
+  private static final int IN_SELECTION = 1;
+  private static final int IN_CARET_ROW = 2;
+  private static final int IN_GUARDED_BLOCK = 4;
+  private static final int IN_FOLD = 8;
 
   /**
    * You MUST CALL {@link #dispose()} afterwards
@@ -130,6 +147,7 @@ public final class IterationState {
     mySelectionAttributes = editor.getSelectionModel().getTextAttributes();
 
     myReadOnlyColor = myEditor.getColorsScheme().getColor(EditorColors.READONLY_FRAGMENT_BACKGROUND_COLOR);
+    myGuardedBlockAttributes = new TextAttributes(null, myReadOnlyColor, null, EffectType.BOXED, Font.PLAIN);
 
     CaretModel caretModel = editor.getCaretModel();
     myCaretRowAttributes = editor.isRendererMode() ? null : caretModel.getTextAttributes();
@@ -182,6 +200,7 @@ public final class IterationState {
       if (myNextHighlighter != null) {
         if (myNextHighlighter.getAffectedAreaStartOffset() <= myStartOffset) {
           myCurrentHighlighters.add(myNextHighlighter);
+          myCurrentHighlightersChanged = true;
           myNextHighlighter = null;
         }
         
@@ -193,6 +212,7 @@ public final class IterationState {
           final RangeHighlighterEx lookAhead = myIterator.next();
           if (lookAhead.getAffectedAreaStartOffset() <= myStartOffset) {
             myCurrentHighlighters.add(lookAhead);
+            myCurrentHighlightersChanged = true;
           }
           else {
             myIterator.pushBack(lookAhead);
@@ -208,6 +228,7 @@ public final class IterationState {
           }
           else {
             myCurrentHighlighters.add(highlighter);
+            myCurrentHighlightersChanged = true;
           }
         }
       }
@@ -311,6 +332,7 @@ public final class IterationState {
       RangeHighlighterEx highlighter = myCurrentHighlighters.get(i);
       if (highlighter.getAffectedAreaEndOffset() <= myStartOffset) {
         myCurrentHighlighters.remove(i);
+        myCurrentHighlightersChanged = true;
       }
     }
   }
@@ -368,17 +390,24 @@ public final class IterationState {
 
     TextAttributes syntax = myHighlighterIterator.getTextAttributes();
 
+    int flags = (isInSelection ? IN_SELECTION : 0) | (isInCaretRow ? IN_CARET_ROW : 0) |
+                (isInGuardedBlock ? IN_GUARDED_BLOCK : 0) | (myCurrentFold != null ? IN_FOLD : 0);
+    if (!myCurrentHighlightersChanged && flags == myMergedFlags && syntax == myMergedSyntax) {
+      return; // nothing has changed since the previous segment
+    }
+    myMergedFlags = flags;
+    myMergedSyntax = syntax;
+
     TextAttributes selection = isInSelection ? mySelectionAttributes : null;
     TextAttributes caret = isInCaretRow ? myCaretRowAttributes : null;
     TextAttributes fold = myCurrentFold != null ? myFoldTextAttributes : null;
-    TextAttributes guard = isInGuardedBlock
-                           ? new TextAttributes(null, myReadOnlyColor, null, EffectType.BOXED, Font.PLAIN)
-                           : null;
+    TextAttributes guard = isInGuardedBlock ? myGuardedBlockAttributes : null;
 
     final int size = myCurrentHighlighters.size();
-    if (size > 1) {
+    if (size > 1 && myCurrentHighlightersChanged) {
       ContainerUtil.quickSort(myCurrentHighlighters, HIGHLIGHTER_COMPARATOR);
     }
+    myCurrentHighlightersChanged = false;
 
     //noinspection ForLoopReplaceableByForEach
     for (int i = 0; i < size; i++) {
@@ -500,6 +529,7 @@ public final class IterationState {
     Color caret = isInCaretRow && myCaretRowAttributes != null ? myCaretRowAttributes.getBackgroundColor() : null;
 
     ContainerUtil.quickSort(myCurrentHighlighters, LayerComparator.INSTANCE);
+    myCurrentHighlightersChanged = true;
 
     //noinspection ForLoopReplaceableByForEach
     for (int i = 0; i < myCurrentHighlighters.size(); i++) {
@@ -153,6 +153,18 @@ public class MarkupModelImpl extends UserDataHolderBase implements MarkupModelEx
     }
   }
 
+  @Override
+  public void runBatchOperation(@NotNull Runnable operation) {
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    myHighlighterTree.startBulkAdd();
+    try {
+      operation.run();
+    }
+    finally {
+      myHighlighterTree.finishBulkAdd();
+    }
+  }
+
   IntervalTreeImpl.IntervalNode addRangeHighlighter(RangeHighlighterEx marker,
                                                     int start,
                                                     int end,
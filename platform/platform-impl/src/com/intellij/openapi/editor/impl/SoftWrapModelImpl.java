@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -377,7 +377,8 @@ public class SoftWrapModelImpl implements SoftWrapModelEx, PrioritizedDocumentLi
   @NotNull
   @Override
   public LogicalPosition visualToLogicalPosition(@NotNull VisualPosition visual) {
-    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMapping()) {
+    // soft wraps only add visual lines, so the logical line is not after the one mapped without them
+    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMappingLine(myEditor.visualToLogicalPosition(visual, false).line)) {
       return myEditor.visualToLogicalPosition(visual, false);
     }
     myActive++;
@@ -393,7 +394,7 @@ public class SoftWrapModelImpl implements SoftWrapModelEx, PrioritizedDocumentLi
   @NotNull
   @Override
   public LogicalPosition offsetToLogicalPosition(int offset) {
-    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMapping()) {
+    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMapping(offset)) {
       return myEditor.offsetToLogicalPosition(offset, false);
     }
     myActive++;
@@ -408,7 +409,7 @@ public class SoftWrapModelImpl implements SoftWrapModelEx, PrioritizedDocumentLi
 
   @NotNull
   public LogicalPosition adjustLogicalPosition(LogicalPosition defaultLogical, int offset) {
-    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMapping()) {
+    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMapping(offset)) {
       return defaultLogical;
     }
 
@@ -425,7 +426,7 @@ public class SoftWrapModelImpl implements SoftWrapModelEx, PrioritizedDocumentLi
   @Override
   @NotNull
   public VisualPosition adjustVisualPosition(@NotNull LogicalPosition logical, @NotNull VisualPosition defaultVisual) {
-    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMapping()) {
+    if (myBulkUpdateInProgress || myUpdateInProgress || !prepareToMappingLine(logical.line)) {
       return defaultVisual;
     }
 
@@ -446,9 +447,15 @@ public class SoftWrapModelImpl implements SoftWrapModelEx, PrioritizedDocumentLi
    * if soft wraps-aware processing should be used (e.g. there is no need to consider soft wraps if user configured them
    * not to be used).
    *
+   * <p/>
+   * Soft wraps of a big document may be calculated lazily, only for the visible area and the text before it, see
+   * {@link SoftWrapApplianceManager#recalculateIfNecessary(int)}. So the soft wraps are calculated up to the given offset here,
+   * otherwise the mapping of positions after the processed part of the document would ignore their soft wraps.
+   *
+   * @param offset  offset the mapped position may lay at
    * @return      <code>true</code> if soft wraps-aware processing should be used; <code>false</code> otherwise
    */
-  private boolean prepareToMapping() {
+  private boolean prepareToMapping(int offset) {
     boolean useSoftWraps = myActive <= 0 && isSoftWrappingEnabled() && myEditor.getDocument().getTextLength() > 0
                              && myFoldBasedApplianceStrategy.processSoftWraps();
 
@@ -462,7 +469,13 @@ public class SoftWrapModelImpl implements SoftWrapModelEx, PrioritizedDocumentLi
       myDirty = false;
     }
     
-    return myApplianceManager.recalculateIfNecessary();
+    return myApplianceManager.recalculateIfNecessary(offset);
+  }
+
+  private boolean prepareToMappingLine(int logicalLine) {
+    Document document = myEditor.getDocument();
+    int lineCount = document.getLineCount();
+    return prepareToMapping(logicalLine < lineCount ? document.getLineEndOffset(logicalLine) : document.getTextLength());
   }
 
   /**
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,8 @@ package com.intellij.openapi.editor.impl.softwrap.mapping;
 
 import com.intellij.diagnostic.Dumpable;
 import com.intellij.diagnostic.LogMessageEx;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.application.ex.ApplicationManagerEx;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.*;
@@ -26,11 +28,13 @@ import com.intellij.openapi.editor.event.VisibleAreaEvent;
 import com.intellij.openapi.editor.event.VisibleAreaListener;
 import com.intellij.openapi.editor.ex.DocumentEx;
 import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.ex.FoldingModelEx;
 import com.intellij.openapi.editor.ex.ScrollingModelEx;
 import com.intellij.openapi.editor.ex.util.EditorUtil;
 import com.intellij.openapi.editor.impl.*;
 import com.intellij.openapi.editor.impl.softwrap.*;
 import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import org.intellij.lang.annotations.JdkConstants;
 import org.jetbrains.annotations.NotNull;
@@ -50,6 +54,11 @@ import java.util.List;
  * This class encapsulates document parsing logic. It notifies {@link SoftWrapAwareDocumentParsingListener registered listeners}
  * about parsing and they are free to store necessary information for further usage.
  * <p/>
+ * Soft wraps of large documents may be calculated lazily (see {@link #LAZY_RECALCULATION_MIN_TEXT_LENGTH}): whole document recalculation
+ * is performed only up to the end of the visible area (plus a margin) and the rest of the text is processed later in small chunks
+ * in EDT. Until then mappings for the unprocessed part of the document are based on the soft wraps calculated for it before (if any),
+ * i.e. they are consistent but may be inexact.
+ * <p/>
  * Not thread-safe.
  *
  * @author Denis Zhdanov
@@ -58,6 +67,12 @@ import java.util.List;
 public class SoftWrapApplianceManager implements SoftWrapFoldingListener, DocumentListener, Dumpable {
   
   private static final Logger LOG = Logger.getInstance("#" + SoftWrapApplianceManager.class.getName());
+
+  /** Soft wraps of the documents of this length and longer are calculated lazily if it's enabled in the registry. */
+  private static final int LAZY_RECALCULATION_MIN_TEXT_LENGTH = 512 * 1024;
+  /** Number of symbols to process at once when soft wraps are calculated lazily beyond the visible area. */
+  private static final int LAZY_RECALCULATION_CHUNK_SIZE      = 64 * 1024;
+  private static final int LAZY_RECALCULATION_MIN_MARGIN_LINES = 100;
   
   /** Enumerates possible type of soft wrap indents to use. */
   enum IndentType {
@@ -105,6 +120,24 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
   private boolean                        myInProgress;
   private boolean                        myHasLinesWithFailedWrap;
 
+  /** Start offset of the document tail for which soft wraps are still to be calculated in the lazy mode; negative if there is none. */
+  private int                            myUnprocessedStartOffset = -1;
+  private boolean                        myLazyRecalculationScheduled;
+  private final Runnable myLazyRecalculationRunnable = new Runnable() {
+    @Override
+    public void run() {
+      myLazyRecalculationScheduled = false;
+      if (myUnprocessedStartOffset < 0 || myEditor.isDisposed() || !myEditor.getSoftWrapModel().isSoftWrappingEnabled()) {
+        return;
+      }
+      if (myInProgress) {
+        scheduleLazyRecalculation();
+        return;
+      }
+      recalculateSoftWraps(Math.max(getLazyRecalculationLimit(), myUnprocessedStartOffset + LAZY_RECALCULATION_CHUNK_SIZE));
+    }
+  };
+
   public SoftWrapApplianceManager(@NotNull SoftWrapsStorage storage,
                                   @NotNull EditorEx editor,
                                   @NotNull SoftWrapPainter painter,
@@ -133,6 +166,7 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
 
   public void reset() {
     myEventsStorage.release();
+    myUnprocessedStartOffset = -1;
     myEventsStorage.add(myEditor.getDocument(), new IncrementalCacheUpdateEvent(myEditor.getDocument()));
     for (SoftWrapAwareDocumentParsingListener listener : myListeners) {
       listener.reset();
@@ -141,6 +175,7 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
   
   public void release() {
     myEventsStorage.release();
+    myUnprocessedStartOffset = -1;
     myLineWrapPositionStrategy = null;
   }
 
@@ -166,7 +201,23 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
    *            have information about viewport width)
    */
   private boolean recalculateSoftWraps() {
+    return recalculateSoftWraps(getLazyRecalculationLimit());
+  }
+
+  /**
+   * @param lazyRecalculationLimit  offset to process the document up to when the whole document tail should be recalculated,
+   *                                see {@link #getLazyRecalculationLimit()}
+   */
+  private boolean recalculateSoftWraps(int lazyRecalculationLimit) {
     initListenerIfNecessary();
+    Document document = myEditor.getDocument();
+    if (myUnprocessedStartOffset >= 0 && myUnprocessedStartOffset <= lazyRecalculationLimit && myVisibleAreaWidth > 0) {
+      int startOffset = myUnprocessedStartOffset;
+      myUnprocessedStartOffset = -1;
+      if (startOffset < document.getTextLength()) {
+        myEventsStorage.add(document, new IncrementalCacheUpdateEvent(document, startOffset, document.getTextLength() - 1));
+      }
+    }
     if (myEventsStorage.getEvents().isEmpty()) {
       return true;
     }
@@ -176,6 +227,9 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
 
     // There is a possible case that new dirty regions are encountered during processing, hence, we iterate on regions snapshot here.
     List<IncrementalCacheUpdateEvent> events = new ArrayList<IncrementalCacheUpdateEvent>(myEventsStorage.getEvents());
+    if (lazyRecalculationLimit < document.getTextLength()) {
+      deferDocumentTailProcessing(events, lazyRecalculationLimit);
+    }
     myActiveEvents.addAll(events);
     myEventsStorage.release();
     if (myInProgress && !events.isEmpty()) {
@@ -205,9 +259,88 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
     for (SoftWrapAwareDocumentParsingListener listener : myListeners) {
       listener.recalculationEnds();
     }
+    if (myUnprocessedStartOffset >= 0) {
+      scheduleLazyRecalculation();
+    }
     return true;
   }
 
+  /**
+   * Replaces the given events that request recalculation of the whole document tail by the events that stop at the given offset
+   * and remembers that the rest of the document is still to be processed. Other events are processed as usual.
+   */
+  private void deferDocumentTailProcessing(@NotNull List<IncrementalCacheUpdateEvent> events, int limit) {
+    Document document = myEditor.getDocument();
+    int limitLineEndOffset = document.getLineEndOffset(document.getLineNumber(limit));
+    for (int i = events.size() - 1; i >= 0; i--) {
+      IncrementalCacheUpdateEvent event = events.get(i);
+      if (event.getExactOffsetsDiff() != 0 || event.getOldEndOffset() < document.getTextLength() - 1
+          || event.getOldEndOffset() - event.getOldStartOffset() <= LAZY_RECALCULATION_CHUNK_SIZE
+          || event.getOldEndOffset() <= limitLineEndOffset)
+      {
+        continue;
+      }
+      int unprocessedStart;
+      if (event.getOldStartOffset() > limitLineEndOffset) {
+        events.remove(i);
+        unprocessedStart = event.getOldStartOffset();
+      }
+      else {
+        events.set(i, new IncrementalCacheUpdateEvent(document, event.getOldStartOffset(), limitLineEndOffset));
+        unprocessedStart = limitLineEndOffset + 1;
+      }
+      if (myUnprocessedStartOffset < 0 || unprocessedStart < myUnprocessedStartOffset) {
+        myUnprocessedStartOffset = unprocessedStart;
+      }
+    }
+  }
+
+  /**
+   * @return    offset to stop recalculation of the whole document tail at, i.e. the end of the visible area plus a margin
+   *            if soft wraps are calculated lazily; {@link Integer#MAX_VALUE} otherwise
+   */
+  private int getLazyRecalculationLimit() {
+    Document document = myEditor.getDocument();
+    if (document.getTextLength() < LAZY_RECALCULATION_MIN_TEXT_LENGTH || !Registry.is("editor.soft.wrap.lazy.recalculation")) {
+      return Integer.MAX_VALUE;
+    }
+
+    // We can't map visual positions here as the mapping relies on the soft wraps being calculated. The logical line of the visible
+    // area bottom is not greater than its visual line plus the number of folded lines before it, so it's used as an estimate.
+    Rectangle visibleArea = myEditor.getScrollingModel().getVisibleArea();
+    int lineHeight = myEditor.getLineHeight();
+    int visibleLines = visibleArea.height / lineHeight + 1;
+    int visualLine = (visibleArea.y + visibleArea.height) / lineHeight + Math.max(visibleLines, LAZY_RECALCULATION_MIN_MARGIN_LINES);
+    int logicalLine = visualLine;
+    FoldingModelEx foldingModel = myEditor.getFoldingModel();
+    if (foldingModel instanceof FoldingModelImpl) {
+      for (int i = 0; i < 10 && logicalLine < document.getLineCount(); i++) {
+        int line = visualLine + ((FoldingModelImpl)foldingModel).getFoldedLinesCountBefore(document.getLineEndOffset(logicalLine));
+        if (line == logicalLine) {
+          break;
+        }
+        logicalLine = line;
+      }
+    }
+    if (logicalLine >= document.getLineCount()) {
+      return Integer.MAX_VALUE;
+    }
+    return document.getLineEndOffset(logicalLine);
+  }
+
+  private int getLazyRecalculationLimit(int offset) {
+    int limit = getLazyRecalculationLimit();
+    return offset < 0 ? limit : Math.max(limit, offset);
+  }
+
+  private void scheduleLazyRecalculation() {
+    if (myLazyRecalculationScheduled) {
+      return;
+    }
+    myLazyRecalculationScheduled = true;
+    ApplicationManager.getApplication().invokeLater(myLazyRecalculationRunnable, ModalityState.any());
+  }
+
   private void recalculateSoftWraps(IncrementalCacheUpdateEvent event) {
     event.updateNewOffsetsIfNecessary(myEditor.getDocument(), myEditor.getFoldingModel());
     
@@ -794,6 +927,16 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
    *         have information about viewport width
    */
   public boolean recalculateIfNecessary() {
+    return recalculateIfNecessary(-1);
+  }
+
+  /**
+   * Does the same as {@link #recalculateIfNecessary()} and makes sure that soft wraps are calculated at least up to the given offset
+   * if they are calculated lazily, i.e. the document tail after the visible area is processed up to the offset at once.
+   *
+   * @param offset  offset to calculate soft wraps up to; negative if only the visible area should be processed
+   */
+  public boolean recalculateIfNecessary(int offset) {
     if (myInProgress) {
       return false;
     }
@@ -812,7 +955,7 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
     // Check if we need to recalculate soft wraps due to visible area width change.
     int currentVisibleAreaWidth = myWidthProvider.getVisibleAreaWidth();
     if (!indentChanged && myVisibleAreaWidth == currentVisibleAreaWidth) {
-      return recalculateSoftWraps(); // Recalculate existing dirty regions if any.
+      return recalculateSoftWraps(getLazyRecalculationLimit(offset)); // Recalculate existing dirty regions if any.
     }
 
     final JScrollBar scrollBar = myEditor.getScrollPane().getVerticalScrollBar();
@@ -837,7 +980,7 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
     // that such a situation is triggered by the scroll bar (dis)appearance.
     if (Math.abs(currentVisibleAreaWidth - myVisibleAreaWidth) == myVerticalScrollBarWidth) {
       myVisibleAreaWidth = currentVisibleAreaWidth;
-      return recalculateSoftWraps();
+      return recalculateSoftWraps(getLazyRecalculationLimit(offset));
     }
     
     // We want to adjust viewport's 'y' coordinate on complete recalculation, so, we remember number of soft-wrapped lines
@@ -855,7 +998,7 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
     reset();
     myStorage.removeAll();
     myVisibleAreaWidth = currentVisibleAreaWidth;
-    final boolean result = recalculateSoftWraps();
+    final boolean result = recalculateSoftWraps(getLazyRecalculationLimit(offset));
     if (!result) {
       return false;
     }
@@ -1009,6 +1152,9 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
   @Override
   public void beforeDocumentChange(DocumentEvent event) {
     myEventsStorage.add(event.getDocument(), new IncrementalCacheUpdateEvent(event));
+    if (myUnprocessedStartOffset > event.getOffset()) {
+      myUnprocessedStartOffset = Math.max(event.getOffset(), myUnprocessedStartOffset + event.getNewLength() - event.getOldLength());
+    }
   }
 
   @Override
@@ -1030,8 +1176,9 @@ public class SoftWrapApplianceManager implements SoftWrapFoldingListener, Docume
   @Override
   public String dumpState() {
     return String.format(
-      "recalculation in progress: %b; stored update events: %s; active update events: %s, event being processed: %s",
-      myInProgress, myEventsStorage, myActiveEvents, myEventBeingProcessed
+      "recalculation in progress: %b; stored update events: %s; active update events: %s, event being processed: %s, "
+      + "unprocessed start offset: %d",
+      myInProgress, myEventsStorage, myActiveEvents, myEventBeingProcessed, myUnprocessedStartOffset
     );
   }
 
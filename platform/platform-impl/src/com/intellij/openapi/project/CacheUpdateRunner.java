@@ -15,6 +15,7 @@
  */
 package com.intellij.openapi.project;
 
+import com.intellij.ide.IdeBundle;
 import com.intellij.ide.caches.CacheUpdater;
 import com.intellij.ide.caches.FileContent;
 import com.intellij.openapi.application.Application;
@@ -39,6 +40,7 @@ import java.util.concurrent.Future;
 class CacheUpdateRunner {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.project.CacheUpdateRunner");
   private static final int PROC_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final long THROUGHPUT_UPDATE_INTERVAL = 1000;
   private final Project myProject;
   private final Collection<CacheUpdater> myUpdaters;
   private CacheUpdateSession mySession;
@@ -71,15 +73,21 @@ class CacheUpdateRunner {
       final double total = files.size();
       queue.queue(files, indicator);
 
-      Consumer<VirtualFile> progressUpdater = new Consumer<VirtualFile>() {
+      final String text = indicator.getText();
+      final Throughput throughput = new Throughput();
+      Consumer<FileContent> progressUpdater = new Consumer<FileContent>() {
         // need set here to handle queue.pushbacks after checkCancelled() in order
         // not to count the same file several times
         final Set<VirtualFile> processed = new THashSet<VirtualFile>();
 
-        public void consume(VirtualFile virtualFile) {
+        public void consume(FileContent fileContent) {
           indicator.checkCanceled();
+          final VirtualFile virtualFile = fileContent.getVirtualFile();
           synchronized (processed) {
-            processed.add(virtualFile);
+            if (processed.add(virtualFile) && throughput.fileProcessed(fileContent.getLength())) {
+              indicator.setText(IdeBundle.message("progress.indexing.throughput", text, throughput.getFilesPerSecond(),
+                                                  throughput.getMegabytesPerSecond()));
+            }
             indicator.setFraction(processed.size() / total);
           }
           if (virtualFile.isValid()) {
@@ -103,6 +111,8 @@ class CacheUpdateRunner {
         indicator.cancel();
         indicator.checkCanceled();
       }
+      LOG.info("Indexed " + throughput.getFiles() + " files: " + throughput.getFilesPerSecond() + " files/s, " +
+               throughput.getMegabytesPerSecond() + " MB/s");
     }
     catch (ProcessCanceledException e) {
       mySession.canceled();
@@ -110,6 +120,41 @@ class CacheUpdateRunner {
     }
   }
 
+  private static class Throughput {
+    private final long myStarted = System.currentTimeMillis();
+    private long myLastUpdate = myStarted;
+    private int myFiles;
+    private long myBytes;
+
+    /**
+     * @return true if the presented throughput should be updated
+     */
+    synchronized boolean fileProcessed(long length) {
+      myFiles++;
+      myBytes += length;
+      final long now = System.currentTimeMillis();
+      if (now - myLastUpdate < THROUGHPUT_UPDATE_INTERVAL) return false;
+      myLastUpdate = now;
+      return true;
+    }
+
+    synchronized int getFiles() {
+      return myFiles;
+    }
+
+    synchronized String getFilesPerSecond() {
+      return String.valueOf(myFiles * 1000L / getElapsed());
+    }
+
+    synchronized String getMegabytesPerSecond() {
+      return String.format("%.1f", myBytes * 1000.0 / getElapsed() / (1024 * 1024));
+    }
+
+    private long getElapsed() {
+      return Math.max(1, System.currentTimeMillis() - myStarted);
+    }
+  }
+
   public void updatingDone() {
     try {
       mySession.updatingDone();
@@ -121,7 +166,7 @@ class CacheUpdateRunner {
   }
 
   private boolean processSomeFilesWhileUserIsInactive(final FileContentQueue queue,
-                                                      final Consumer<VirtualFile> progressUpdater,
+                                                      final Consumer<FileContent> progressUpdater,
                                                       final boolean processInReadAction) {
     final ProgressIndicatorBase innerIndicator = new ProgressIndicatorBase() {
       @Override
@@ -193,14 +238,14 @@ class CacheUpdateRunner {
     private final ProgressIndicatorBase myInnerIndicator;
     private final FileContentQueue myQueue;
     private final Ref<Boolean> myFinished;
-    private final Consumer<VirtualFile> myProgressUpdater;
+    private final Consumer<FileContent> myProgressUpdater;
     private final boolean myProcessInReadAction;
     private final Application myApplication;
 
     public MyRunnable(ProgressIndicatorBase innerIndicator,
                       FileContentQueue queue,
                       Ref<Boolean> finished,
-                      Consumer<VirtualFile> progressUpdater,
+                      Consumer<FileContent> progressUpdater,
                       boolean processInReadAction, Application application) {
       myInnerIndicator = innerIndicator;
       myQueue = queue;
@@ -226,8 +271,7 @@ class CacheUpdateRunner {
             public void run() {
               myInnerIndicator.checkCanceled();
               if (!myProject.isDisposed()) {
-                final VirtualFile file = fileContent.getVirtualFile();
-                myProgressUpdater.consume(file);
+                myProgressUpdater.consume(fileContent);
                 mySession.processFile(fileContent);
               }
             }
@@ -30,6 +30,7 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.ConcurrentHashMap;
 import com.intellij.util.containers.IntArrayList;
 import com.intellij.util.io.*;
@@ -85,6 +86,8 @@ public class FSRecords implements Forceable {
 
   private static final String CHILDREN_ATT = "FsRecords.DIRECTORY_CHILDREN";
 
+  // records are modified under w only: the paged storage of the records caches its last pages and grows the file
+  // without synchronization of its own, so concurrent writers could get each other's pages
   private static final ReentrantReadWriteLock.ReadLock r;
   private static final ReentrantReadWriteLock.WriteLock w;
 
@@ -119,6 +122,10 @@ public class FSRecords implements Forceable {
 
     private static final AttrPageAwareCapacityAllocationPolicy REASONABLY_SMALL = new AttrPageAwareCapacityAllocationPolicy();
 
+    // records and names get their own page cache so that flushing of big indices does not evict hot VFS pages
+    private static final int PAGE_CACHE_SIZE = SystemProperties.getIntProperty("idea.vfs.paged.storage.cache", 50) * PagedFileStorage.MB;
+    private static PagedFileStorage.StorageLock ourStorageLock;
+
 
     public static void connect() {
       try {
@@ -205,7 +212,8 @@ public class FSRecords implements Forceable {
           throw new IOException("Corruption marker file found");
         }
 
-        PagedFileStorage.StorageLockContext storageLockContext = new PagedFileStorage.StorageLockContext(false);
+        if (ourStorageLock == null) ourStorageLock = new PagedFileStorage.StorageLock(false, PAGE_CACHE_SIZE);
+        PagedFileStorage.StorageLockContext storageLockContext = new PagedFileStorage.StorageLockContext(ourStorageLock, false);
         myNames = new PersistentStringEnumerator(namesFile, storageLockContext);
         myAttributes = new Storage(attributesFile.getCanonicalPath(), REASONABLY_SMALL);
         myContents = new RefCountingStorage(contentsFile.getCanonicalPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH); // sources usually zipped with 4x ratio
@@ -447,6 +455,9 @@ public class FSRecords implements Forceable {
         myRecords.close();
         myRecords = null;
       }
+      if (ourStorageLock != null) {
+        LOG.info("VFS page cache: " + ourStorageLock.getStatistics() + "; shared page cache: " + PagedFileStorage.getStatistics());
+      }
       ourInitialized = false;
     }
 
@@ -483,11 +494,11 @@ public class FSRecords implements Forceable {
     }
 
     private static class AttrPageAwareCapacityAllocationPolicy extends CapacityAllocationPolicy {
-      boolean myAttrPageRequested;
+      final ThreadLocal<Boolean> myAttrPageRequested = new ThreadLocal<Boolean>();
 
       @Override
       public int calculateCapacity(int requiredLength) {   // 20% for growth
-        return Math.max(myAttrPageRequested ? 8:32, Math.min((int)(requiredLength * 1.2), (requiredLength / 1024 + 1) * 1024));
+        return Math.max(myAttrPageRequested.get() == Boolean.TRUE ? 8:32, Math.min((int)(requiredLength * 1.2), (requiredLength / 1024 + 1) * 1024));
       }
     }
   }
@@ -1124,6 +1135,41 @@ public class FSRecords implements Forceable {
     }
   }
 
+  /**
+   * Same as {@link #readContent(int)} but the content is returned as is, without wrapping it into a stream or copying it.
+   * If the stored content has the length recorded for the file, the returned sequence spans the whole byte array.
+   */
+  @Nullable
+  public static ByteSequence readContentBytes(int fileId) {
+    try {
+      int page;
+      long length;
+      try {
+        r.lock();
+        page = findContentPage(fileId, false);
+        if (page == 0) return null;
+        length = getRecords().getLong(getOffset(fileId, LENGTH_OFFSET));
+      }
+      finally {
+        r.unlock();
+      }
+      return getContentStorage().readByteSequence(page, length > 0 && length < Integer.MAX_VALUE ? (int)length : 0);
+    }
+    catch (Throwable e) {
+      throw DbConnection.handleError(e);
+    }
+  }
+
+  @NotNull
+  public static ByteSequence readContentBytesById(int contentId) {
+    try {
+      return getContentStorage().readByteSequence(contentId, 0);
+    }
+    catch (Throwable e) {
+      throw DbConnection.handleError(e);
+    }
+  }
+
   @Nullable
   public static DataInputStream readContentById(int contentId) {
     try {
@@ -1208,11 +1254,11 @@ public class FSRecords implements Forceable {
       DataInputOutputUtil.writeINT(appender, encodedAttrId);
       int attrAddress = storage.createNewRecord();
       DataInputOutputUtil.writeINT(appender, attrAddress);
-      DbConnection.REASONABLY_SMALL.myAttrPageRequested = true;
+      DbConnection.REASONABLY_SMALL.myAttrPageRequested.set(Boolean.TRUE);
       try {
         appender.close();
       } finally {
-        DbConnection.REASONABLY_SMALL.myAttrPageRequested = false;
+        DbConnection.REASONABLY_SMALL.myAttrPageRequested.set(Boolean.FALSE);
       }
       return attrAddress;
     }
@@ -1423,7 +1469,7 @@ public class FSRecords implements Forceable {
       }
     }
     finally {
-      r.unlock();
+      w.unlock();
     }
 
     t = System.currentTimeMillis() - t;
@@ -255,11 +255,6 @@ public class PersistentFSImpl extends PersistentFS implements ApplicationCompone
     return FSRecords.readContent(getFileId(file));
   }
 
-  @Nullable
-  private static DataInputStream readContentById(int contentId) {
-    return FSRecords.readContentById(contentId);
-  }
-
   @NotNull
   private static DataOutputStream writeContent(@NotNull VirtualFile file, boolean readOnly) {
     return FSRecords.writeContent(getFileId(file), readOnly);
@@ -495,12 +490,12 @@ public class PersistentFSImpl extends PersistentFS implements ApplicationCompone
   @Override
   @NotNull
   public byte[] contentsToByteArray(@NotNull final VirtualFile file, boolean cacheContent) throws IOException {
-    InputStream contentStream = null;
+    ByteSequence contentBytes = null;
     boolean reloadFromDelegate;
     boolean outdated;
     synchronized (myInputLock) {
       outdated = checkFlag(file, MUST_RELOAD_CONTENT) || FSRecords.getLength(getFileId(file)) == -1L;
-      reloadFromDelegate = outdated || (contentStream = readContent(file)) == null;
+      reloadFromDelegate = outdated || (contentBytes = FSRecords.readContentBytes(getFileId(file))) == null;
     }
 
     if (reloadFromDelegate) {
@@ -536,23 +531,31 @@ public class PersistentFSImpl extends PersistentFS implements ApplicationCompone
       return content;
     }
     else {
-      try {
-        final int length = (int)file.getLength();
-        assert length >= 0 : file;
-        return FileUtil.loadBytes(contentStream, length);
-      }
-      catch (IOException e) {
-        throw FSRecords.handleError(e);
-      }
+      final int length = (int)file.getLength();
+      assert length >= 0 : file;
+      return toByteArray(contentBytes, length);
     }
   }
 
   @Override
   @NotNull
   public byte[] contentsToByteArray(int contentId) throws IOException {
-    final DataInputStream stream = readContentById(contentId);
-    assert stream != null : contentId;
-    return FileUtil.loadBytes(stream);
+    final ByteSequence contentBytes = FSRecords.readContentBytesById(contentId);
+    return toByteArray(contentBytes, contentBytes.getLength());
+  }
+
+  // the storage returns a buffer of its own, so it is used as is when its size matches;
+  // the content shorter than the recorded length is returned as stored, not padded with zeros
+  @NotNull
+  private static byte[] toByteArray(@NotNull ByteSequence bytes, int length) {
+    final byte[] buffer = bytes.getBytes();
+    final int resultLength = Math.min(length, bytes.getLength());
+    if (bytes.getOffset() == 0 && buffer.length == resultLength) {
+      return buffer;
+    }
+    final byte[] result = new byte[resultLength];
+    System.arraycopy(buffer, bytes.getOffset(), result, 0, resultLength);
+    return result;
   }
 
   @Override
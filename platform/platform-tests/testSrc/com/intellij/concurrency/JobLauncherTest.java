@@ -0,0 +1,171 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.concurrency;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JobLauncherTest extends LightPlatformTestCase {
+  private static final int SIZE = 10000;
+
+  public JobLauncherTest() {
+    PlatformTestCase.initPlatformLangPrefix();
+  }
+
+  public void testChunksCoverTheListOnce() {
+    for (int size : new int[]{1, 2, 10, 1000, 12345}) {
+      for (int workers = 1; workers <= 8; workers *= 2) {
+        List<int[]> chunks = claimAllChunks(new JobLauncherImpl.ChunkQueue(size, workers));
+        assertTrue(chunks.get(0)[1] <= Math.max(1, size / (workers * 2)));
+        int end = 0;
+        int lastLength = Integer.MAX_VALUE;
+        for (int[] chunk : chunks) {
+          assertEquals(end, chunk[0]);
+          int length = chunk[1] - chunk[0];
+          assertTrue(length > 0 && length <= lastLength);
+          end = chunk[1];
+          lastLength = length;
+        }
+        assertEquals(size, end);
+      }
+    }
+  }
+
+  public void testSkewedWorkload() throws InterruptedException {
+    final JobLauncherImpl.ChunkQueue queue = new JobLauncherImpl.ChunkQueue(SIZE, 4);
+    // the worker with a huge element is stuck with its first chunk, while the others process the rest
+    int[] stuckChunk = new int[2];
+    assertTrue(queue.claimChunk(stuckChunk));
+    final AtomicInteger processed = new AtomicInteger();
+    List<Thread> others = new ArrayList<Thread>();
+    for (int i = 0; i < 3; i++) {
+      Thread thread = new Thread("JobLauncherTest worker " + i) {
+        @Override
+        public void run() {
+          int[] chunk = new int[2];
+          while (queue.claimChunk(chunk)) {
+            processed.addAndGet(chunk[1] - chunk[0]);
+          }
+        }
+      };
+      thread.start();
+      others.add(thread);
+    }
+    for (Thread thread : others) {
+      thread.join(10000);
+      assertFalse(thread.isAlive());
+    }
+    assertEquals(SIZE - (stuckChunk[1] - stuckChunk[0]), processed.get());
+    assertTrue(stuckChunk[1] - stuckChunk[0] <= SIZE / 8);
+  }
+
+  public void testStopsWhenProcessorReturnsFalse() {
+    final AtomicInteger processed = new AtomicInteger();
+    boolean result = invokeForAll(new ProgressIndicatorBase(), new Processor<Integer>() {
+      @Override
+      public boolean process(Integer integer) {
+        return processed.incrementAndGet() > 1;
+      }
+    });
+    assertFalse(result);
+    assertTrue(String.valueOf(processed.get()), processed.get() < SIZE);
+  }
+
+  public void testExceptionIsRethrown() {
+    final RuntimeException exception = new RuntimeException("test");
+    final AtomicInteger processed = new AtomicInteger();
+    try {
+      invokeForAll(new ProgressIndicatorBase(), new Processor<Integer>() {
+        @Override
+        public boolean process(Integer integer) {
+          if (processed.incrementAndGet() == 100) throw exception;
+          return true;
+        }
+      });
+      fail("the exception of the processor is lost");
+    }
+    catch (RuntimeException e) {
+      assertSame(exception, e);
+    }
+    assertTrue(String.valueOf(processed.get()), processed.get() < SIZE);
+  }
+
+  public void testCancellation() {
+    final ProgressIndicator indicator = new ProgressIndicatorBase();
+    final AtomicInteger processed = new AtomicInteger();
+    boolean result = invokeForAll(indicator, new Processor<Integer>() {
+      @Override
+      public boolean process(Integer integer) {
+        if (processed.incrementAndGet() == 100) indicator.cancel();
+        // the workers run under the wrapper of the indicator
+        ProgressIndicator workerIndicator = ProgressManager.getInstance().getProgressIndicator();
+        assertNotNull(workerIndicator);
+        workerIndicator.checkCanceled();
+        return true;
+      }
+    });
+    assertFalse(result);
+    assertTrue(String.valueOf(processed.get()), processed.get() < SIZE);
+  }
+
+  public void testStatistics() {
+    JobLauncherImpl.Statistics before = JobLauncherImpl.getStatistics();
+    final AtomicInteger processed = new AtomicInteger();
+    assertTrue(invokeForAll(new ProgressIndicatorBase(), new Processor<Integer>() {
+      @Override
+      public boolean process(Integer integer) {
+        processed.incrementAndGet();
+        return true;
+      }
+    }));
+    assertEquals(SIZE, processed.get());
+
+    JobLauncherImpl.Statistics after = JobLauncherImpl.getStatistics();
+    int workers = Math.min(JobSchedulerImpl.CORES_COUNT, SIZE);
+    assertEquals(1, after.jobs - before.jobs);
+    // the chunks don't depend on the workers claiming them
+    assertEquals(claimAllChunks(new JobLauncherImpl.ChunkQueue(SIZE, workers)).size(), after.chunks - before.chunks);
+    assertTrue(after.runByCaller - before.runByCaller <= workers);
+    assertTrue(after.idleNanos >= before.idleNanos);
+  }
+
+  @NotNull
+  private static List<int[]> claimAllChunks(@NotNull JobLauncherImpl.ChunkQueue queue) {
+    List<int[]> chunks = new ArrayList<int[]>();
+    int[] chunk = new int[2];
+    while (queue.claimChunk(chunk)) {
+      chunks.add(chunk.clone());
+    }
+    return chunks;
+  }
+
+  private static boolean invokeForAll(@NotNull ProgressIndicator indicator, @NotNull Processor<Integer> processor) {
+    List<Integer> things = new ArrayList<Integer>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      things.add(i);
+    }
+    return JobLauncher.getInstance().invokeConcurrentlyUnderProgress(things, indicator, false, processor);
+  }
+}
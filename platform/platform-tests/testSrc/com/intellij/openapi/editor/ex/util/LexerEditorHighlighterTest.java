@@ -0,0 +1,292 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.ex.util;
+
+import com.intellij.lang.Language;
+import com.intellij.lexer.Lexer;
+import com.intellij.lexer.LexerBase;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.highlighter.HighlighterClient;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterBase;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+public class LexerEditorHighlighterTest extends LightPlatformCodeInsightFixtureTestCase {
+  private static final IElementType WORD = new IElementType("WORD", Language.ANY);
+  private static final IElementType STRING = new IElementType("STRING", Language.ANY);
+  private static final IElementType QUOTE = new IElementType("QUOTE", Language.ANY);
+
+  private Document myDocument;
+  private LexerEditorHighlighter myHighlighter;
+
+  public LexerEditorHighlighterTest() {
+    PlatformTestCase.initPlatformLangPrefix();
+  }
+
+  @Override
+  protected boolean isWriteActionRequired() {
+    return false;
+  }
+
+  public void testRandomEdits() {
+    Random random = new Random(42);
+    init(randomText(random, 2000));
+    for (int i = 0; i < 500; i++) {
+      randomEdit(random);
+      assertEquals(lexWholeText(), getHighlighterTokens());
+    }
+  }
+
+  public void testBackgroundRelexing() throws InterruptedException {
+    RegistryValue backgroundRelexing = Registry.get("editor.background.relexing");
+    boolean backgroundRelexingBefore = backgroundRelexing.asBoolean();
+    backgroundRelexing.setValue(true);
+    try {
+      init(StringUtil.repeat("ab cd ef\n", 10000));
+      // everything after the quote becomes a string
+      insert(3, "\"");
+      // the relexed tokens are applied on the EDT, so the old ones are still there
+      String tokens = getHighlighterTokens();
+      String expected = lexWholeText();
+      assertFalse(expected.equals(tokens));
+      assertTrue(tokens.startsWith(lexText(10000)));
+
+      waitForRelexing();
+
+      Random random = new Random(42);
+      for (int i = 0; i < 100; i++) {
+        randomEdit(random);
+        getHighlighterTokens();
+        if (random.nextInt(10) == 0) {
+          UIUtil.dispatchAllInvocationEvents();
+        }
+      }
+      waitForRelexing();
+    }
+    finally {
+      backgroundRelexing.setValue(backgroundRelexingBefore);
+    }
+  }
+
+  private void init(@NotNull String text) {
+    myDocument = EditorFactory.getInstance().createDocument(text);
+    myHighlighter = new LexerEditorHighlighter(new TestSyntaxHighlighter(), EditorColorsManager.getInstance().getGlobalScheme());
+    myHighlighter.setEditor(new HighlighterClient() {
+      @Override
+      public Project getProject() {
+        return LexerEditorHighlighterTest.this.getProject();
+      }
+
+      @Override
+      public void repaint(int start, int end) {
+      }
+
+      @Override
+      public Document getDocument() {
+        return myDocument;
+      }
+    });
+    myHighlighter.setText(text);
+    myDocument.addDocumentListener(myHighlighter);
+  }
+
+  private void waitForRelexing() throws InterruptedException {
+    String expected = lexWholeText();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline) {
+      UIUtil.dispatchAllInvocationEvents();
+      if (expected.equals(getHighlighterTokens())) return;
+      Thread.sleep(10);
+    }
+    assertEquals(expected, getHighlighterTokens());
+  }
+
+  private void randomEdit(Random random) {
+    int offset = random.nextInt(myDocument.getTextLength() + 1);
+    if (random.nextBoolean() || offset == myDocument.getTextLength()) {
+      insert(offset, randomText(random, 1 + random.nextInt(3)));
+    }
+    else {
+      final int start = offset;
+      final int end = Math.min(myDocument.getTextLength(), offset + 1 + random.nextInt(3));
+      new WriteCommandAction.Simple(getProject()) {
+        @Override
+        protected void run() throws Throwable {
+          myDocument.deleteString(start, end);
+        }
+      }.execute();
+    }
+  }
+
+  private void insert(final int offset, @NotNull final String text) {
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        myDocument.insertString(offset, text);
+      }
+    }.execute();
+  }
+
+  @NotNull
+  private static String randomText(Random random, int length) {
+    // quotes are rare, otherwise the changes don't go far enough
+    String chars = "abcd \n\"";
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      text.append(chars.charAt(random.nextInt(random.nextInt(20) == 0 ? chars.length() : chars.length() - 1)));
+    }
+    return text.toString();
+  }
+
+  @NotNull
+  private String lexWholeText() {
+    return lexText(Integer.MAX_VALUE);
+  }
+
+  @NotNull
+  private String lexText(int endOffset) {
+    StringBuilder tokens = new StringBuilder();
+    Lexer lexer = new TestLexer();
+    lexer.start(myDocument.getCharsSequence());
+    while (lexer.getTokenType() != null && lexer.getTokenStart() < endOffset) {
+      tokens.append(lexer.getTokenStart()).append('-').append(lexer.getTokenEnd()).append(':').append(lexer.getTokenType()).append('\n');
+      lexer.advance();
+    }
+    return tokens.toString();
+  }
+
+  // also checks that the tokens cover the whole text
+  @NotNull
+  private String getHighlighterTokens() {
+    StringBuilder tokens = new StringBuilder();
+    int end = 0;
+    for (HighlighterIterator iterator = myHighlighter.createIterator(0); !iterator.atEnd(); iterator.advance()) {
+      assertEquals(end, iterator.getStart());
+      end = iterator.getEnd();
+      tokens.append(iterator.getStart()).append('-').append(iterator.getEnd()).append(':').append(iterator.getTokenType()).append('\n');
+    }
+    assertEquals(myDocument.getTextLength(), end);
+    return tokens.toString();
+  }
+
+  private static class TestSyntaxHighlighter extends SyntaxHighlighterBase {
+    @NotNull
+    @Override
+    public Lexer getHighlightingLexer() {
+      return new TestLexer();
+    }
+
+    @NotNull
+    @Override
+    public TextAttributesKey[] getTokenHighlights(IElementType tokenType) {
+      return EMPTY;
+    }
+  }
+
+  /**
+   * Words, white spaces and quotes; the words between the quotes are strings lexed in a non-initial state.
+   */
+  private static class TestLexer extends LexerBase {
+    private CharSequence myBuffer;
+    private int myEnd;
+    private int myTokenStart;
+    private int myTokenEnd;
+    private int myState;
+    private int myNextState;
+    private IElementType myTokenType;
+
+    @Override
+    public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      myBuffer = buffer;
+      myEnd = endOffset;
+      myTokenEnd = startOffset;
+      myNextState = initialState;
+      advance();
+    }
+
+    @Override
+    public int getState() {
+      return myState;
+    }
+
+    @Override
+    public IElementType getTokenType() {
+      return myTokenType;
+    }
+
+    @Override
+    public int getTokenStart() {
+      return myTokenStart;
+    }
+
+    @Override
+    public int getTokenEnd() {
+      return myTokenEnd;
+    }
+
+    @Override
+    public void advance() {
+      myTokenStart = myTokenEnd;
+      myState = myNextState;
+      if (myTokenStart >= myEnd) {
+        myTokenType = null;
+        return;
+      }
+      char c = myBuffer.charAt(myTokenStart);
+      if (c == '"') {
+        myTokenType = QUOTE;
+        myTokenEnd = myTokenStart + 1;
+        myNextState = 1 - myState;
+        return;
+      }
+      boolean whiteSpace = isWhiteSpace(c);
+      myTokenType = whiteSpace ? TokenType.WHITE_SPACE : myState == 0 ? WORD : STRING;
+      myTokenEnd = myTokenStart + 1;
+      while (myTokenEnd < myEnd && myBuffer.charAt(myTokenEnd) != '"' && isWhiteSpace(myBuffer.charAt(myTokenEnd)) == whiteSpace) {
+        myTokenEnd++;
+      }
+    }
+
+    private static boolean isWhiteSpace(char c) {
+      return c == ' ' || c == '\n';
+    }
+
+    @Override
+    public CharSequence getBufferSequence() {
+      return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+      return myEnd;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.ex.util;
+
+import gnu.trove.TIntArrayList;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the lazily shifted segments against a naive model, which shifts all the following segments at once.
+ */
+public class SegmentArrayTest extends TestCase {
+  private final SegmentArrayWithData mySegments = new SegmentArrayWithData();
+  private final TIntArrayList myStarts = new TIntArrayList();
+  private final TIntArrayList myEnds = new TIntArrayList();
+  private final TIntArrayList myData = new TIntArrayList();
+
+  public void testShiftsAtTheSamePlace() {
+    for (int i = 0; i < 100; i++) {
+      append(1, 2, i);
+    }
+    for (int i = 0; i < 50; i++) {
+      changeSegmentLength(40, 1);
+      check();
+    }
+    shiftSegments(60, -1);
+    check();
+    changeSegmentLength(10, 2);
+    check();
+    changeSegmentLength(90, 5);
+    check();
+  }
+
+  public void testRandomOperations() {
+    for (int seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      mySegments.removeAll();
+      myStarts.clear();
+      myEnds.clear();
+      myData.clear();
+      for (int i = 0; i < 10000; i++) {
+        doRandomOperation(random);
+        try {
+          check();
+        }
+        catch (AssertionError e) {
+          throw new AssertionError("seed " + seed + ", operation " + i + ": " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void doRandomOperation(Random random) {
+    int count = myStarts.size();
+    int operation = count == 0 ? 0 : random.nextInt(20);
+    if (operation < 2) {
+      append(random.nextInt(3), 1 + random.nextInt(5), random.nextInt(100));
+    }
+    else if (operation < 8) {
+      int index = random.nextInt(count);
+      int length = myEnds.get(index) - myStarts.get(index);
+      changeSegmentLength(index, random.nextInt(length + 10) - length + 1);
+    }
+    else if (operation < 12) {
+      int index = random.nextInt(count);
+      int gap = myStarts.get(index) - (index == 0 ? 0 : myEnds.get(index - 1));
+      shiftSegments(index, random.nextInt(gap + 10) - gap);
+    }
+    else if (operation < 16) {
+      int startIndex = random.nextInt(count);
+      int endIndex = startIndex + 1 + random.nextInt(Math.min(5, count - startIndex));
+      replace(startIndex, endIndex, random.nextInt(8) + 1, random);
+    }
+    else if (operation < 18) {
+      int startIndex = random.nextInt(count);
+      remove(startIndex, startIndex + 1 + random.nextInt(Math.min(3, count - startIndex)));
+    }
+    else if (operation < 19) {
+      int index = random.nextInt(count);
+      int data = random.nextInt(100);
+      mySegments.setSegmentData(index, data);
+      myData.set(index, data);
+    }
+    else if (random.nextInt(50) == 0) {
+      mySegments.removeAll();
+      myStarts.clear();
+      myEnds.clear();
+      myData.clear();
+    }
+  }
+
+  private void append(int gap, int length, int data) {
+    int count = myStarts.size();
+    int start = (count == 0 ? 0 : myEnds.get(count - 1)) + gap;
+    mySegments.setElementAt(count, start, start + length, data);
+    myStarts.add(start);
+    myEnds.add(start + length);
+    myData.add(data);
+  }
+
+  private void changeSegmentLength(int index, int change) {
+    mySegments.changeSegmentLength(index, change);
+    myEnds.set(index, myEnds.get(index) + change);
+    shiftModel(index + 1, change);
+  }
+
+  private void shiftSegments(int index, int shift) {
+    mySegments.shiftSegments(index, shift);
+    shiftModel(index, shift);
+  }
+
+  private void shiftModel(int index, int shift) {
+    for (int i = index; i < myStarts.size(); i++) {
+      myStarts.set(i, myStarts.get(i) + shift);
+      myEnds.set(i, myEnds.get(i) + shift);
+    }
+  }
+
+  // replaces the segments with the given number of segments covering the same range
+  private void replace(int startIndex, int endIndex, int newCount, Random random) {
+    int start = myStarts.get(startIndex);
+    int end = myEnds.get(endIndex - 1);
+    newCount = Math.min(newCount, end - start);
+    SegmentArrayWithData newSegments = new SegmentArrayWithData();
+    myStarts.remove(startIndex, endIndex - startIndex);
+    myEnds.remove(startIndex, endIndex - startIndex);
+    myData.remove(startIndex, endIndex - startIndex);
+    int segmentStart = start;
+    for (int i = 0; i < newCount; i++) {
+      int segmentEnd = i == newCount - 1 ? end : segmentStart + 1 + random.nextInt(end - segmentStart - (newCount - i - 1));
+      int data = random.nextInt(100);
+      newSegments.setElementAt(i, segmentStart, segmentEnd, data);
+      myStarts.insert(startIndex + i, segmentStart);
+      myEnds.insert(startIndex + i, segmentEnd);
+      myData.insert(startIndex + i, data);
+      segmentStart = segmentEnd;
+    }
+    mySegments.replace(startIndex, endIndex, newSegments);
+  }
+
+  private void remove(int startIndex, int endIndex) {
+    mySegments.remove(startIndex, endIndex);
+    myStarts.remove(startIndex, endIndex - startIndex);
+    myEnds.remove(startIndex, endIndex - startIndex);
+    myData.remove(startIndex, endIndex - startIndex);
+  }
+
+  private void check() {
+    int count = myStarts.size();
+    assertEquals(count, mySegments.getSegmentCount());
+    assertEquals(count == 0 ? 0 : myEnds.get(count - 1), mySegments.getLastValidOffset());
+    for (int i = 0; i < count; i++) {
+      assertEquals("start of " + i, myStarts.get(i), mySegments.getSegmentStart(i));
+      assertEquals("end of " + i, myEnds.get(i), mySegments.getSegmentEnd(i));
+      assertEquals("data of " + i, myData.get(i), mySegments.getSegmentData(i));
+      assertEquals("segment at " + myStarts.get(i), i, mySegments.findSegmentIndex(myStarts.get(i)));
+      assertEquals("segment at " + (myEnds.get(i) - 1), i, mySegments.findSegmentIndex(myEnds.get(i) - 1));
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,7 +20,6 @@ import com.intellij.openapi.editor.impl.event.DocumentEventImpl;
 import com.intellij.openapi.util.Pair;
 import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.containers.Stack;
-import com.intellij.util.text.CharSequenceBackedByArray;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jmock.Expectations;
@@ -113,34 +112,39 @@ public class CharArrayTest {
   @Test
   public void subSequenceWithDeferredChangeBeforeIt() {
     replace(0, 2, "abc");
-    CharSequenceBackedByArray subsSequence = (CharSequenceBackedByArray)myArray.subSequence(5, 6);
-    assertArrayEquals("4".toCharArray(), subsSequence.getChars());
+    assertEquals("4", myArray.subSequence(5, 6).toString());
   }
 
   @Config(text = "01234567", deferred = true)
   @Test
   public void subSequenceWithDeferredChangeIntersectingFromLeft() {
     replace(0, 2, "abc");
-    CharSequenceBackedByArray subsSequence = (CharSequenceBackedByArray)myArray.subSequence(2, 4);
-    assertArrayEquals("c2".toCharArray(), subsSequence.getChars());
+    assertEquals("c2", myArray.subSequence(2, 4).toString());
   }
 
   @Config(text = "01234567", deferred = true)
   @Test
   public void subSequenceWithDeferredChangeIntersectingFromRight() {
     replace(4, 6, "abc");
-    CharSequenceBackedByArray subsSequence = (CharSequenceBackedByArray)myArray.subSequence(3, 5);
-    assertArrayEquals("3a".toCharArray(), subsSequence.getChars());
+    assertEquals("3a", myArray.subSequence(3, 5).toString());
   }
   
   @Config(text = "01234567", deferred = true)
   @Test
   public void subSequenceWithDeferredChangeAfterIt() {
     replace(6, 8, "abc");
-    CharSequenceBackedByArray subsSequence = (CharSequenceBackedByArray)myArray.subSequence(1, 2);
-    assertArrayEquals("1".toCharArray(), subsSequence.getChars());
+    assertEquals("1", myArray.subSequence(1, 2).toString());
   }
   
+  @Config(text = "01234567", deferred = true)
+  @Test
+  public void getCharsWithDeferredChange() {
+    replace(2, 4, "abc");
+    char[] chars = {'_', '_', '_', '_', '_'};
+    myArray.getChars(1, 5, chars, 1);
+    assertArrayEquals("_1abc".toCharArray(), chars);
+  }
+
   private void init(int size) {
     myArray = new CharArray(size, new char[0], 0) {
       @NotNull
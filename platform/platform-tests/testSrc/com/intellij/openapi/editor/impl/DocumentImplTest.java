@@ -0,0 +1,141 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+import java.util.Random;
+
+public class DocumentImplTest extends LightPlatformTestCase {
+  private static final int EDITS = 10000;
+
+  public void testTypingAtTheStartOfHugeDocument() {
+    final Document document = createDocument(500 * 1000);
+    PlatformTestUtil.startPerformanceTest("typing at the start of a 5.5M chars document", 1000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        type(document);
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  public void testEditLatencyDoesNotDependOnDocumentSize() {
+    Document small = createDocument(5 * 1000);
+    Document large = createDocument(500 * 1000);
+    type(small); // warm up
+
+    long smallTime = type(small);
+    long largeTime = type(large);
+    assertTrue(smallTime + " ms vs " + largeTime + " ms", largeTime < 10 * Math.max(smallTime, 10));
+  }
+
+  public void testLinesAfterRandomEdits() {
+    final Document document = createDocument(100);
+    final StringBuilder expected = new StringBuilder(document.getText());
+    final Random random = new Random(42);
+    final String[] fragments = {"x", "\n", "ab\ncd", "\n\n", "a\n", "\na"};
+    // the line set checks its optimized updates against the full recalculation then
+    LineSet.setTestingMode(true);
+    try {
+      CommandProcessor.getInstance().executeCommand(getProject(), new Runnable() {
+        @Override
+        public void run() {
+          ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+              for (int i = 0; i < 2000; i++) {
+                int start = random.nextInt(expected.length() + 1);
+                int end = Math.min(expected.length(), start + random.nextInt(4));
+                if (random.nextBoolean()) {
+                  String fragment = fragments[random.nextInt(fragments.length)];
+                  document.insertString(start, fragment);
+                  expected.insert(start, fragment);
+                }
+                else {
+                  document.deleteString(start, end);
+                  expected.delete(start, end);
+                }
+                if (i % 100 == 0) checkLines(document, expected);
+              }
+              checkLines(document, expected);
+            }
+          });
+        }
+      }, "", null);
+    }
+    finally {
+      LineSet.setTestingMode(false);
+    }
+  }
+
+  private static void checkLines(Document document, CharSequence expected) {
+    assertEquals(expected.toString(), document.getText());
+    int line = 0;
+    int lineStart = 0;
+    for (int i = 0; i <= expected.length(); i++) {
+      if (i == expected.length() || expected.charAt(i) == '\n') {
+        assertEquals(lineStart, document.getLineStartOffset(line));
+        assertEquals(i, document.getLineEndOffset(line));
+        assertEquals(line, document.getLineNumber(lineStart));
+        line++;
+        lineStart = i + 1;
+      }
+    }
+    assertEquals(line, document.getLineCount());
+  }
+
+  private static Document createDocument(int lineCount) {
+    return EditorFactory.getInstance().createDocument(StringUtil.repeat("0123456789\n", lineCount));
+  }
+
+  /**
+   * Types and deletes text near the start of the document, some of the edits insert or remove line breaks
+   *
+   * @return time taken, ms
+   */
+  private static long type(final Document document) {
+    final int length = document.getTextLength();
+    final long[] time = new long[1];
+    CommandProcessor.getInstance().executeCommand(getProject(), new Runnable() {
+      @Override
+      public void run() {
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+          @Override
+          public void run() {
+            long started = System.currentTimeMillis();
+            for (int i = 0; i < EDITS; i++) {
+              int offset = 100 + i % 1000;
+              document.insertString(offset, i % 10 == 0 ? "\n" : "x");
+              if (i % 2 == 1) {
+                document.deleteString(offset - 1, offset + 1);
+              }
+            }
+            time[0] = System.currentTimeMillis() - started;
+          }
+        });
+      }
+    }, "", null);
+    assertEquals(length, document.getTextLength());
+    return time[0];
+  }
+}
@@ -9,10 +9,10 @@ import com.intellij.openapi.command.undo.UndoManager;
 import com.intellij.openapi.editor.*;
 import com.intellij.openapi.editor.event.DocumentAdapter;
 import com.intellij.openapi.editor.event.DocumentEvent;
-import com.intellij.openapi.editor.ex.DocumentEx;
-import com.intellij.openapi.editor.ex.RangeMarkerEx;
+import com.intellij.openapi.editor.ex.*;
 import com.intellij.openapi.editor.markup.HighlighterTargetArea;
 import com.intellij.openapi.editor.markup.MarkupModel;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.Trinity;
@@ -22,11 +22,16 @@ import com.intellij.psi.impl.PsiDocumentManagerImpl;
 import com.intellij.psi.impl.PsiToDocumentSynchronizer;
 import com.intellij.testFramework.LeakHunter;
 import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
 import com.intellij.testFramework.Timings;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.Processor;
+import com.intellij.util.ThrowableRunnable;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -986,6 +991,101 @@ public class RangeMarkerTest extends LightPlatformTestCase {
       markupModel.removeAllHighlighters();
     }
   }
+
+  public void testRangeHighlightersAddedInBatch() throws Exception {
+    Document document = EditorFactory.getInstance().createDocument(StringUtil.repeat("0123456789", 100));
+    final MarkupModelEx markupModel = (MarkupModelEx)DocumentMarkupModel.forDocument(document, ourProject, true);
+    final List<RangeMarker> markers = new ArrayList<RangeMarker>();
+    for (int i = 0; i < 50; i++) {
+      markers.add(markupModel.addRangeHighlighter(i * 20, i * 20 + 5, 0, null, HighlighterTargetArea.EXACT_RANGE));
+    }
+    markupModel.runBatchOperation(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 500; i++) {
+          markers.add(markupModel.addRangeHighlighter(i * 2, i * 2 + i % 7, i % 3, null, HighlighterTargetArea.EXACT_RANGE));
+          if (i == 250) {
+            // queries see the highlighters added so far
+            assertEquals(50 + 251, markupModel.getAllHighlighters().length);
+          }
+        }
+        markers.add(markupModel.addRangeHighlighter(100, 105, 0, null, HighlighterTargetArea.EXACT_RANGE)); // duplicate
+      }
+    });
+    assertEquals(markers.size(), markupModel.getAllHighlighters().length);
+    for (int i = 0; i < 500; i++) {
+      assertValidMarker(markers.get(50 + i), i * 2, i * 2 + i % 7);
+    }
+
+    document.insertString(0, "xxx");
+    assertValidMarker(markers.get(0), 3, 8);
+    assertValidMarker(markers.get(markers.size() - 1), 103, 108);
+    markupModel.removeAllHighlighters();
+  }
+
+  public void testQueriesInBatchSeeAddedHighlighters() throws Exception {
+    Document document = EditorFactory.getInstance().createDocument(StringUtil.repeat("0123456789", 10));
+    final MarkupModelEx markupModel = (MarkupModelEx)DocumentMarkupModel.forDocument(document, ourProject, true);
+    final RangeHighlighter old = markupModel.addRangeHighlighter(10, 20, 0, null, HighlighterTargetArea.EXACT_RANGE);
+    markupModel.runBatchOperation(new Runnable() {
+      @Override
+      public void run() {
+        final RangeHighlighter added1 = markupModel.addRangeHighlighter(15, 30, 0, null, HighlighterTargetArea.EXACT_RANGE);
+        final RangeHighlighter added2 = markupModel.addRangeHighlighter(5, 12, 0, null, HighlighterTargetArea.EXACT_RANGE);
+        markupModel.addRangeHighlighter(50, 60, 0, null, HighlighterTargetArea.EXACT_RANGE);
+
+        final List<RangeHighlighter> overlapping = new ArrayList<RangeHighlighter>();
+        // the added highlighters aren't attached to the tree by the queries, so the nested ones don't need the write lock
+        markupModel.processRangeHighlightersOverlappingWith(11, 16, new Processor<RangeHighlighterEx>() {
+          @Override
+          public boolean process(RangeHighlighterEx highlighter) {
+            overlapping.add(highlighter);
+            List<RangeHighlighterEx> outside = new ArrayList<RangeHighlighterEx>();
+            markupModel.processRangeHighlightersOutside(0, 40, new CommonProcessors.CollectProcessor<RangeHighlighterEx>(outside));
+            assertEquals(1, outside.size());
+            assertEquals(50, outside.get(0).getStartOffset());
+            return true;
+          }
+        });
+        assertEquals(3, overlapping.size());
+        assertTrue(overlapping.containsAll(Arrays.asList(old, added1, added2)));
+
+        DisposableIterator<RangeHighlighterEx> iterator = markupModel.overlappingIterator(0, 40);
+        try {
+          assertSame(added2, iterator.next());
+          assertSame(old, iterator.next());
+          assertSame(added1, iterator.next());
+          assertFalse(iterator.hasNext());
+        }
+        finally {
+          iterator.dispose();
+        }
+      }
+    });
+    assertEquals(4, markupModel.getAllHighlighters().length);
+    markupModel.removeAllHighlighters();
+  }
+
+  public void testAddingRangeHighlightersInBatchPerformance_NoVerify() throws Exception {
+    final Document document = EditorFactory.getInstance().createDocument(StringUtil.repeat("0123456789", 100000));
+    final MarkupModelEx markupModel = (MarkupModelEx)DocumentMarkupModel.forDocument(document, ourProject, true);
+    PlatformTestUtil.startPerformanceTest("adding 50K highlighters", 500, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        markupModel.runBatchOperation(new Runnable() {
+          @Override
+          public void run() {
+            for (int i = 0; i < 50000; i++) {
+              markupModel.addRangeHighlighter(i * 20, i * 20 + 7, i % 3, null, HighlighterTargetArea.EXACT_RANGE);
+            }
+          }
+        });
+        assertEquals(50000, markupModel.getAllHighlighters().length);
+        markupModel.removeAllHighlighters();
+      }
+    }).cpuBound().assertTiming();
+  }
+
   public void testValidationBug() throws Exception {
     Document document = EditorFactory.getInstance().createDocument("[xxxxxxxxxxxxxx]");
     final Editor editor = EditorFactory.getInstance().createEditor(document);
@@ -23,8 +23,12 @@ import com.intellij.openapi.editor.impl.EditorImpl;
 import com.intellij.openapi.editor.impl.SoftWrapModelImpl;
 import com.intellij.openapi.editor.markup.TextAttributes;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.codeStyle.CommonCodeStyleSettings;
 import com.intellij.testFramework.TestFileType;
+import com.intellij.util.ui.UIUtil;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntProcedure;
 import org.jetbrains.annotations.NotNull;
@@ -1041,6 +1045,53 @@ public class SoftWrapApplianceOnDocumentModificationTest extends AbstractEditorP
     assertEquals(foldStart, myEditor.getCaretModel().getOffset());
   }
   
+  public void testLazyRecalculationForHugeDocument() throws IOException {
+    RegistryValue lazyRecalculation = Registry.get("editor.soft.wrap.lazy.recalculation");
+    boolean lazyRecalculationBefore = lazyRecalculation.asBoolean();
+    lazyRecalculation.setValue(true);
+    try {
+      int lines = 30000;
+      init(20, StringUtil.repeat("aaaa bbbb cccc dddd eeee\n", lines));
+      int softWrapsNumber = getSoftWrapModel().getRegisteredSoftWraps().size();
+      assertTrue(String.valueOf(softWrapsNumber), softWrapsNumber > 0 && softWrapsNumber < lines);
+      
+      // The rest of the document is processed in background.
+      UIUtil.dispatchAllInvocationEvents();
+      assertEquals(lines, getSoftWrapModel().getRegisteredSoftWraps().size());
+      
+      int offset = myEditor.getDocument().getLineStartOffset(lines - 1);
+      assertEquals(new VisualPosition(2 * (lines - 1), 0), myEditor.offsetToVisualPosition(offset));
+      assertEquals(new LogicalPosition(lines - 1, 0), myEditor.visualToLogicalPosition(new VisualPosition(2 * (lines - 1), 0)));
+    }
+    finally {
+      lazyRecalculation.setValue(lazyRecalculationBefore);
+    }
+  }
+
+  public void testMappingOfNotProcessedTailInLazyRecalculation() throws IOException {
+    RegistryValue lazyRecalculation = Registry.get("editor.soft.wrap.lazy.recalculation");
+    boolean lazyRecalculationBefore = lazyRecalculation.asBoolean();
+    lazyRecalculation.setValue(true);
+    try {
+      int lines = 30000;
+      init(20, StringUtil.repeat("aaaa bbbb cccc dddd eeee\n", lines));
+      assertTrue(getSoftWrapModel().getRegisteredSoftWraps().size() < lines);
+
+      // The tail isn't processed in background yet, the mapping processes the document up to the mapped position.
+      int line = lines / 2;
+      int offset = myEditor.getDocument().getLineStartOffset(line);
+      assertEquals(new VisualPosition(2 * line, 0), myEditor.offsetToVisualPosition(offset));
+      assertTrue(getSoftWrapModel().getRegisteredSoftWraps().size() < lines);
+
+      line = lines - 1;
+      assertEquals(new LogicalPosition(line, 0), myEditor.visualToLogicalPosition(new VisualPosition(2 * line, 0)));
+      assertEquals(lines, getSoftWrapModel().getRegisteredSoftWraps().size());
+    }
+    finally {
+      lazyRecalculation.setValue(lazyRecalculationBefore);
+    }
+  }
+
   private void init(final int visibleWidthInColumns, @NotNull String fileText) throws IOException {
     init(visibleWidthInColumns, 7, fileText);
   }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Several threads create and modify their own records at the same time, while others read records of all the threads.
+ */
+public class FSRecordsConcurrencyTest extends LightPlatformTestCase {
+  private static final String ATTRIBUTE = "FSRecordsConcurrencyTest.attribute";
+  private static final int THREADS = 8;
+  private static final int RECORDS_PER_THREAD = 50;
+  private static final int ITERATIONS = 50;
+
+  public FSRecordsConcurrencyTest() {
+    PlatformTestCase.initPlatformLangPrefix();
+  }
+
+  public void testConcurrentWriters() throws Throwable {
+    final int[][] records = new int[THREADS][];
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final int modCountBefore = FSRecords.getLocalModCount();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads.add(new Thread("FSRecords writer " + t) {
+        @Override
+        public void run() {
+          try {
+            // new records grow the records file while the others write
+            int[] ids = new int[RECORDS_PER_THREAD];
+            for (int i = 0; i < ids.length; i++) {
+              ids[i] = FSRecords.createRecord();
+            }
+            records[thread] = ids;
+            for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+              for (int i = 0; i < ids.length; i++) {
+                writeRecord(ids[i], thread, i, iteration);
+              }
+            }
+          }
+          catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      });
+      threads.add(new Thread("FSRecords reader " + t) {
+        @Override
+        public void run() {
+          try {
+            Random random = new Random(thread);
+            for (int i = 0; i < ITERATIONS * RECORDS_PER_THREAD; i++) {
+              int[] ids = records[random.nextInt(THREADS)];
+              if (ids == null) continue;
+              int id = ids[random.nextInt(ids.length)];
+              FSRecords.getName(id);
+              FSRecords.getTimestamp(id);
+              FSRecords.getParent(id);
+            }
+          }
+          catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join(60000);
+      assertFalse(thread.getName(), thread.isAlive());
+    }
+    if (!errors.isEmpty()) throw errors.get(0);
+
+    try {
+      for (int t = 0; t < THREADS; t++) {
+        for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+          checkRecord(records[t][i], t, i, ITERATIONS - 1);
+        }
+      }
+      // every setter and every attribute write counts as one modification
+      assertTrue(FSRecords.getLocalModCount() - modCountBefore >= THREADS * RECORDS_PER_THREAD * ITERATIONS * 5);
+    }
+    finally {
+      for (int[] ids : records) {
+        for (int id : ids) {
+          FSRecords.deleteRecordRecursively(id);
+        }
+      }
+    }
+  }
+
+  private static void writeRecord(int id, int thread, int index, int iteration) throws IOException {
+    FSRecords.setName(id, name(thread, index, iteration));
+    FSRecords.setFlags(id, iteration & 0xff, true);
+    FSRecords.setLength(id, value(thread, index, iteration));
+    FSRecords.setTimestamp(id, -value(thread, index, iteration));
+    DataOutputStream stream = FSRecords.writeAttribute(id, ATTRIBUTE, false);
+    try {
+      stream.writeLong(value(thread, index, iteration));
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  private static void checkRecord(int id, int thread, int index, int iteration) throws IOException {
+    assertEquals(name(thread, index, iteration), FSRecords.getName(id));
+    assertEquals(iteration & 0xff, FSRecords.getFlags(id));
+    assertEquals(value(thread, index, iteration), FSRecords.getLength(id));
+    assertEquals(-value(thread, index, iteration), FSRecords.getTimestamp(id));
+    assertEquals(0, FSRecords.getParent(id));
+    assertTrue(FSRecords.getModCount(id) <= FSRecords.getModCount());
+    DataInputStream stream = FSRecords.readAttributeWithLock(id, ATTRIBUTE);
+    assertNotNull(stream);
+    try {
+      assertEquals(value(thread, index, iteration), stream.readLong());
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  @NotNull
+  private static String name(int thread, int index, int iteration) {
+    return "record_" + thread + "_" + index + "_" + iteration;
+  }
+
+  private static long value(int thread, int index, int iteration) {
+    return ((long)thread << 40) + ((long)index << 20) + iteration;
+  }
+}
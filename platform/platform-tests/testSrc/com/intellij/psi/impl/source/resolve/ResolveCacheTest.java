@@ -0,0 +1,174 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.source.resolve;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.psi.impl.PsiModificationTrackerImpl;
+import com.intellij.psi.impl.PsiTreeChangeEventImpl;
+import com.intellij.psi.impl.PsiTreeChangePreprocessor;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.ArrayUtil;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+
+public class ResolveCacheTest extends LightPlatformCodeInsightFixtureTestCase {
+  private final Set<PsiFile> myCodeBlockFiles = new THashSet<PsiFile>();
+  private boolean myReportBeforeEvents = true;
+  private PsiFile myFile1;
+  private PsiFile myFile2;
+
+  public ResolveCacheTest() {
+    PlatformTestCase.initPlatformLangPrefix();
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile1 = myFixture.addFileToProject("file1.txt", "foo");
+    myFile2 = myFixture.addFileToProject("file2.txt", "bar");
+    // a code block tracker for the plain text, which reports the changes of myCodeBlockFiles to be inside a code block
+    final PsiManagerImpl manager = (PsiManagerImpl)getPsiManager();
+    manager.addTreeChangePreprocessor(new PsiTreeChangePreprocessor() {
+      @Override
+      public void treeChanged(@NotNull PsiTreeChangeEventImpl event) {
+        if (myCodeBlockFiles.contains(event.getFile()) && (myReportBeforeEvents || !event.getCode().name().startsWith("BEFORE_"))) {
+          ((PsiModificationTrackerImpl)manager.getModificationTracker()).codeBlockChanged(event.getFile());
+        }
+      }
+    }, myTestRootDisposable);
+  }
+
+  public void testCodeBlockChangeDropsOnlyResultsOfTheChangedFile() {
+    CountingReference ref1 = new CountingReference(myFile1);
+    CountingReference ref2 = new CountingReference(myFile2);
+    resolve(ref1, ref2);
+    resolve(ref1, ref2);
+    assertEquals(1, ref1.resolveCount);
+    assertEquals(1, ref2.resolveCount);
+
+    myCodeBlockFiles.add(myFile1);
+    long fileInvalidations = getResolveCache().getStatistics().fileInvalidations;
+    long fullClears = getResolveCache().getStatistics().fullClears;
+    changeText(myFile1);
+    assertEquals(fullClears, getResolveCache().getStatistics().fullClears);
+    assertTrue(getResolveCache().getStatistics().fileInvalidations > fileInvalidations);
+
+    resolve(ref1, ref2);
+    assertEquals(2, ref1.resolveCount);
+    assertEquals(1, ref2.resolveCount);
+  }
+
+  public void testChangeWithUnreportedEventsDropsEverything() {
+    CountingReference ref1 = new CountingReference(myFile1);
+    CountingReference ref2 = new CountingReference(myFile2);
+    resolve(ref1, ref2);
+
+    // some events of the change aren't reported, like the ones in a language without a code block tracker
+    myCodeBlockFiles.add(myFile1);
+    myReportBeforeEvents = false;
+    changeText(myFile1);
+
+    resolve(ref1, ref2);
+    assertEquals(2, ref1.resolveCount);
+    assertEquals(2, ref2.resolveCount);
+  }
+
+  public void testUnreportedChangeDropsEverything() {
+    CountingReference ref1 = new CountingReference(myFile1);
+    CountingReference ref2 = new CountingReference(myFile2);
+    resolve(ref1, ref2);
+
+    changeText(myFile1);
+
+    resolve(ref1, ref2);
+    assertEquals(2, ref1.resolveCount);
+    assertEquals(2, ref2.resolveCount);
+  }
+
+  public void testUnmatchedBeforeChangeDropsEverythingButDoesNotDisableCache() {
+    final CountingReference ref1 = new CountingReference(myFile1);
+    final CountingReference ref2 = new CountingReference(myFile2);
+    resolve(ref1, ref2);
+
+    // the test runs in a write action
+    assertTrue(ApplicationManager.getApplication().isWriteAccessAllowed());
+    getPsiManager().dropResolveCaches();
+    resolve(ref1, ref2);
+    resolve(ref1, ref2);
+    assertEquals(2, ref1.resolveCount);
+    assertEquals(2, ref2.resolveCount);
+
+    // a change made after an unmatched beforePsiChanged() drops everything, and the cache is used after it
+    myCodeBlockFiles.add(myFile1);
+    getPsiManager().dropResolveCaches();
+    changeText(myFile1);
+    resolve(ref1, ref2);
+    resolve(ref1, ref2);
+    assertEquals(3, ref1.resolveCount);
+    assertEquals(3, ref2.resolveCount);
+  }
+
+  private void changeText(@NotNull PsiFile file) {
+    Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+    assertNotNull(document);
+    document.insertString(document.getTextLength(), "x");
+    PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    assertEquals(document.getText(), file.getText());
+  }
+
+  private ResolveCache getResolveCache() {
+    return ResolveCache.getInstance(getProject());
+  }
+
+  private static void resolve(@NotNull CountingReference... refs) {
+    for (CountingReference ref : refs) {
+      assertSame(ref.getElement(), ref.resolve());
+    }
+  }
+
+  private static class CountingReference extends PsiReferenceBase<PsiFile> {
+    private static final ResolveCache.Resolver RESOLVER = new ResolveCache.Resolver() {
+      @Override
+      public PsiElement resolve(@NotNull PsiReference ref, boolean incompleteCode) {
+        ((CountingReference)ref).resolveCount++;
+        return ref.getElement();
+      }
+    };
+    private int resolveCount;
+
+    private CountingReference(@NotNull PsiFile file) {
+      super(file, TextRange.from(0, 1));
+    }
+
+    @Override
+    public PsiElement resolve() {
+      return ResolveCache.getInstance(getElement().getProject()).resolveWithCaching(this, RESOLVER, false, false);
+    }
+
+    @NotNull
+    @Override
+    public Object[] getVariants() {
+      return ArrayUtil.EMPTY_OBJECT_ARRAY;
+    }
+  }
+}
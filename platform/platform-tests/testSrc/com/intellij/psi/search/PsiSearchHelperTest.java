@@ -0,0 +1,107 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.search;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiReference;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.Processor;
+import com.intellij.util.ThrowableRunnable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PsiSearchHelperTest extends LightPlatformCodeInsightFixtureTestCase {
+  private static final int FILE_COUNT = 100;
+
+  public PsiSearchHelperTest() {
+    PlatformTestCase.initPlatformLangPrefix();
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    for (int i = 0; i < FILE_COUNT; i++) {
+      myFixture.addFileToProject("file" + i + ".txt", StringUtil.repeat("foo bar fooBar baz\n", 1000) + "Foo qux");
+    }
+  }
+
+  public void testEveryRequestForTheWordGetsAllOccurrences() {
+    SearchRequestCollector collector = new SearchRequestCollector(new SearchSession());
+    CountingProcessor foo1 = searchWord(collector, "foo", true, 1);
+    CountingProcessor foo2 = searchWord(collector, "foo", true, 2);
+    CountingProcessor fooIgnoringCase = searchWord(collector, "foo", false, 3);
+    CountingProcessor qux = searchWord(collector, "qux", true, 4);
+    CountingProcessor absent = searchWord(collector, "absent", true, 5);
+
+    assertTrue(PsiSearchHelper.SERVICE.getInstance(getProject()).processRequests(collector, CommonProcessors.<PsiReference>alwaysTrue()));
+    assertEquals(FILE_COUNT * 1000, foo1.count.get());
+    assertEquals(FILE_COUNT * 1000, foo2.count.get());
+    assertEquals(FILE_COUNT * 1001, fooIgnoringCase.count.get());
+    assertEquals(FILE_COUNT, qux.count.get());
+    assertEquals(0, absent.count.get());
+  }
+
+  public void testManyRequestsForTheSameWordPerformance() {
+    // warm up the index
+    processRequestsForFoo(1);
+    PlatformTestUtil.startPerformanceTest("20 requests for the same word in " + FILE_COUNT + " files", 1000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        processRequestsForFoo(20);
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private void processRequestsForFoo(int requestCount) {
+    SearchRequestCollector collector = new SearchRequestCollector(new SearchSession());
+    CountingProcessor[] processors = new CountingProcessor[requestCount];
+    for (int i = 0; i < requestCount; i++) {
+      processors[i] = searchWord(collector, "foo", true, i);
+    }
+    searchWord(collector, "qux", true, requestCount);
+    assertTrue(PsiSearchHelper.SERVICE.getInstance(getProject()).processRequests(collector, CommonProcessors.<PsiReference>alwaysTrue()));
+    for (CountingProcessor processor : processors) {
+      assertEquals(FILE_COUNT * 1000, processor.count.get());
+    }
+  }
+
+  @NotNull
+  private CountingProcessor searchWord(@NotNull SearchRequestCollector collector, @NotNull String word, boolean caseSensitive, int id) {
+    CountingProcessor processor = new CountingProcessor(id);
+    collector.searchWord(word, GlobalSearchScope.allScope(getProject()), UsageSearchContext.IN_PLAIN_TEXT, caseSensitive, processor);
+    return processor;
+  }
+
+  private static class CountingProcessor extends RequestResultProcessor {
+    private final AtomicInteger count = new AtomicInteger();
+
+    private CountingProcessor(int id) {
+      super(id);
+    }
+
+    @Override
+    public boolean processTextOccurrence(@NotNull PsiElement element, int offsetInElement, @NotNull Processor<PsiReference> consumer) {
+      // the occurrences are reported for all the elements containing them, up to the file
+      if (element.getFirstChild() == null) count.incrementAndGet();
+      return true;
+    }
+  }
+}
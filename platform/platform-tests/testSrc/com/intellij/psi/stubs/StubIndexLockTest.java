@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.stubs;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class StubIndexLockTest extends TestCase {
+  public void testReaderDoesNotBargePastQueuedWriter() throws InterruptedException {
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    String statisticsBefore = StubIndexImpl.getLockStatistics();
+
+    lock.readLock().lock();
+    Thread writer = start("writer", new Runnable() {
+      @Override
+      public void run() {
+        StubIndexImpl.lock(lock.writeLock(), true);
+        order.add("writer");
+        lock.writeLock().unlock();
+      }
+    });
+    waitForQueueLength(lock, 1);
+
+    // the read lock is available, but the reader has to wait for the queued writer
+    Thread reader = start("reader", new Runnable() {
+      @Override
+      public void run() {
+        StubIndexImpl.lock(lock.readLock(), false);
+        order.add("reader");
+        lock.readLock().unlock();
+      }
+    });
+    waitForQueueLength(lock, 2);
+    assertTrue(order.isEmpty());
+
+    lock.readLock().unlock();
+    writer.join(10000);
+    reader.join(10000);
+    assertEquals(2, order.size());
+    assertEquals("writer", order.get(0));
+    assertEquals("reader", order.get(1));
+    assertFalse(statisticsBefore.equals(StubIndexImpl.getLockStatistics()));
+  }
+
+  @NotNull
+  private static Thread start(@NotNull String name, @NotNull Runnable runnable) {
+    Thread thread = new Thread(runnable, "StubIndexLockTest " + name);
+    thread.start();
+    return thread;
+  }
+
+  private static void waitForQueueLength(@NotNull ReentrantReadWriteLock lock, int length) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (lock.getQueueLength() < length) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+}
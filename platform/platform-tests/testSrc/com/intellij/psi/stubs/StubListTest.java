@@ -0,0 +1,231 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.stubs;
+
+import com.intellij.lang.Language;
+import com.intellij.psi.PsiElement;
+import com.intellij.util.io.AbstractStringEnumerator;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import com.intellij.util.io.UnsyncByteArrayOutputStream;
+import gnu.trove.TObjectIntHashMap;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the stubs of a complete tree, which keep their children in a shared {@link StubList}.
+ */
+public class StubListTest extends TestCase {
+  private static final TestStubType TYPE = new TestStubType("TEST_STUB");
+  private static final TestStubType OTHER_TYPE = new TestStubType("OTHER_TEST_STUB");
+
+  public void testChildrenOrder() {
+    TestStub root = createRandomTree(new Random(42), 1000);
+    String before = dumpTree(root);
+
+    ObjectStubTree tree = new ObjectStubTree(root, false);
+
+    assertEquals(before, dumpTree(root));
+    List plainList = tree.getPlainList();
+    assertEquals(1000, plainList.size());
+    for (int i = 0; i < plainList.size(); i++) {
+      TestStub stub = (TestStub)plainList.get(i);
+      assertEquals(i, stub.id);
+      List<StubElement> children = stub.getChildrenStubs();
+      assertEquals(children, stub.getChildrenStubs());
+      for (StubElement child : children) {
+        assertSame(stub, child.getParentStub());
+      }
+      StubElement firstOther = null;
+      for (StubElement child : children) {
+        if (child.getStubType() == OTHER_TYPE) {
+          firstOther = child;
+          break;
+        }
+      }
+      assertSame(firstOther, stub.findChildStubByType(OTHER_TYPE));
+    }
+  }
+
+  public void testRoundTrip() throws Exception {
+    TestStub root = createRandomTree(new Random(42), 1000);
+    StubSerializationHelper helper = new StubSerializationHelper(new TestNameStorage());
+    helper.assignId(TYPE);
+    helper.assignId(OTHER_TYPE);
+
+    byte[] bytes = serialize(helper, root);
+    TestStub copy = (TestStub)helper.deserialize(new UnsyncByteArrayInputStream(bytes));
+    assertEquals(dumpTree(root), dumpTree(copy));
+
+    new ObjectStubTree(copy, false);
+    assertEquals(dumpTree(root), dumpTree(copy));
+    assertTrue(Arrays.equals(bytes, serialize(helper, copy)));
+  }
+
+  public void testAddingChildAfterCompaction() {
+    TestStub root = new TestStub(null, TYPE, "root");
+    TestStub parent = new TestStub(root, TYPE, "parent");
+    new TestStub(parent, TYPE, "child1");
+    new TestStub(parent, OTHER_TYPE, "child2");
+    TestStub sibling = new TestStub(root, TYPE, "sibling");
+    new TestStub(sibling, TYPE, "child3");
+    new ObjectStubTree(root, false);
+
+    new TestStub(parent, TYPE, "child4");
+    assertEquals("root\n" +
+                 "  parent\n" +
+                 "    child1\n" +
+                 "    child2\n" +
+                 "    child4\n" +
+                 "  sibling\n" +
+                 "    child3\n", dumpTree(root));
+
+    // the tree with the new child is compacted again
+    ObjectStubTree tree = new ObjectStubTree(root, false);
+    assertEquals(7, tree.getPlainList().size());
+    assertEquals("root\n" +
+                 "  parent\n" +
+                 "    child1\n" +
+                 "    child2\n" +
+                 "    child4\n" +
+                 "  sibling\n" +
+                 "    child3\n", dumpTree(root));
+  }
+
+  @NotNull
+  private static TestStub createRandomTree(@NotNull Random random, int size) {
+    List<TestStub> stubs = new ArrayList<TestStub>();
+    stubs.add(new TestStub(null, TYPE, "root"));
+    for (int i = 1; i < size; i++) {
+      // prefer the recent stubs as parents to get deeper trees
+      TestStub parent = stubs.get(Math.max(0, stubs.size() - 1 - random.nextInt(Math.min(stubs.size(), 10))));
+      stubs.add(new TestStub(parent, random.nextInt(5) == 0 ? OTHER_TYPE : TYPE, "stub" + i));
+    }
+    return stubs.get(0);
+  }
+
+  @NotNull
+  private static byte[] serialize(@NotNull StubSerializationHelper helper, @NotNull Stub root) throws IOException {
+    UnsyncByteArrayOutputStream out = new UnsyncByteArrayOutputStream();
+    helper.serialize(root, out);
+    return out.toByteArray();
+  }
+
+  @NotNull
+  private static String dumpTree(@NotNull Stub root) {
+    StringBuilder builder = new StringBuilder();
+    dumpTree(root, "", builder);
+    return builder.toString();
+  }
+
+  private static void dumpTree(@NotNull Stub stub, @NotNull String indent, @NotNull StringBuilder builder) {
+    builder.append(indent).append(((TestStub)stub).myName).append('\n');
+    for (Stub child : stub.getChildrenStubs()) {
+      dumpTree(child, indent + "  ", builder);
+    }
+  }
+
+  private static class TestStub extends StubBase<PsiElement> {
+    private final String myName;
+
+    private TestStub(@Nullable StubElement parent, @NotNull IStubElementType elementType, @NotNull String name) {
+      super(parent, elementType);
+      myName = name;
+    }
+  }
+
+  private static class TestStubType extends IStubElementType<TestStub, PsiElement> {
+    private TestStubType(@NotNull String debugName) {
+      super(debugName, Language.ANY);
+    }
+
+    @Override
+    public PsiElement createPsi(@NotNull TestStub stub) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TestStub createStub(@NotNull PsiElement psi, StubElement parentStub) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getExternalId() {
+      return "test." + toString();
+    }
+
+    @Override
+    public void serialize(TestStub stub, StubOutputStream dataStream) throws IOException {
+      dataStream.writeName(stub.myName);
+    }
+
+    @Override
+    public TestStub deserialize(StubInputStream dataStream, StubElement parentStub) throws IOException {
+      //noinspection ConstantConditions
+      return new TestStub(parentStub, this, dataStream.readName().getString());
+    }
+
+    @Override
+    public void indexStub(TestStub stub, IndexSink sink) {
+    }
+  }
+
+  private static class TestNameStorage implements AbstractStringEnumerator {
+    private final TObjectIntHashMap<String> myIds = new TObjectIntHashMap<String>();
+    private final List<String> myNames = new ArrayList<String>();
+
+    @Override
+    public int enumerate(@Nullable String value) {
+      if (value == null) return 0;
+      int id = myIds.get(value);
+      if (id == 0) {
+        myNames.add(value);
+        id = myNames.size();
+        myIds.put(value, id);
+      }
+      return id;
+    }
+
+    @Nullable
+    @Override
+    public String valueOf(int idx) {
+      return idx == 0 ? null : myNames.get(idx - 1);
+    }
+
+    @Override
+    public void markCorrupted() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isDirty() {
+      return false;
+    }
+
+    @Override
+    public void force() {
+    }
+  }
+}
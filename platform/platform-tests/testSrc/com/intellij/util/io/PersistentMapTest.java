@@ -7,12 +7,15 @@ import com.intellij.util.ThrowableRunnable;
 import com.intellij.util.containers.IntObjectCache;
 import com.intellij.util.io.storage.Storage;
 import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.DataOutput;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.intellij.util.io.StringEnumeratorTest.createRandomString;
 
@@ -212,6 +215,91 @@ public class PersistentMapTest extends TestCase {
     }
   }
 
+  public void testModificationsDuringBackgroundCompaction() throws Exception {
+    final int stringsCount = 2000;
+    final String padding = StringUtil.repeat("x", 1000);
+    List<String> keys = new ArrayList<String>(stringsCount);
+    for (int i = 0; i < stringsCount; ++i) {
+      keys.add(createRandomString());
+    }
+    for (int t = 0; t < 4; ++t) {
+      for (String key : keys) {
+        myMap.put(key, key + t + padding);
+      }
+    }
+    myMap.close();
+    // most of the values are garbage, so the map is compacted in background after the first operation
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    final CountDownLatch valuesCopied = new CountDownLatch(1);
+    final CountDownLatch modified = new CountDownLatch(1);
+    myMap.setValuesCopiedHook(new Runnable() {
+      @Override
+      public void run() {
+        valuesCopied.countDown();
+        try {
+          modified.await(60, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    Map<String, String> expected = new HashMap<String, String>();
+    for (int i = 0; i < stringsCount / 2; ++i) {
+      modify(keys.get(i), i, padding, expected);
+    }
+    assertTrue(myMap.isCompacting());
+
+    // the rest is modified after the compaction has copied the values, before it switches to them
+    assertTrue(valuesCopied.await(60, TimeUnit.SECONDS));
+    for (int i = stringsCount / 2; i < stringsCount; ++i) {
+      modify(keys.get(i), i, padding, expected);
+    }
+    // the keys modified before the values were copied get new values again
+    for (int i = 0; i < 10; ++i) {
+      String key = keys.get(i);
+      myMap.put(key, key + "_again");
+      expected.put(key, key + "_again");
+    }
+    myMap.put("new key", "new value");
+    expected.put("new key", "new value");
+    modified.countDown();
+
+    long deadline = System.currentTimeMillis() + 60000;
+    while (myMap.isCompacting()) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    myMap.setValuesCopiedHook(null);
+    assertTrue(myMap.getLastCompactionDuration() >= 0);
+    checkMapping(expected);
+
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    checkMapping(expected);
+  }
+
+  private void modify(@NotNull String key, int i, @NotNull String padding, @NotNull Map<String, String> expected) throws IOException {
+    if (i % 3 == 0) {
+      myMap.remove(key);
+    }
+    else if (i % 3 == 1) {
+      myMap.put(key, key + "_value");
+      expected.put(key, key + "_value");
+    }
+    else {
+      expected.put(key, key + 3 + padding);
+    }
+  }
+
+  private void checkMapping(@NotNull Map<String, String> expected) throws IOException {
+    assertEquals(expected.keySet(), new HashSet<String>(myMap.getAllKeysWithExistingMapping()));
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), myMap.get(entry.getKey()));
+    }
+  }
+
   public void testOpeningWithCompact2() throws IOException {
     File file = FileUtil.createTempFile("persistent", "map");
 
@@ -340,6 +428,61 @@ public class PersistentMapTest extends TestCase {
       .printf("Data file size = %d bytes\n", new File(myDataFile.getParentFile(), myDataFile.getName() + Storage.DATA_EXTENSION).length());
   }
 
+  public void testConcurrentReadsPerformance() throws Exception {
+    final List<String> strings = new ArrayList<String>(50000);
+    for (int i = 0; i < 50000; ++i) {
+      final String string = createRandomString();
+      strings.add(string);
+      myMap.put(string, string + "_value");
+    }
+    myMap.force();
+
+    final int cores = Runtime.getRuntime().availableProcessors();
+    for (int threadsCount = 1; threadsCount <= cores; threadsCount *= 2) {
+      final long time = readConcurrently(strings, threadsCount);
+      System.out.printf("Threads = %d, reads = %d, time = %d ms\n", threadsCount, threadsCount * strings.size(), time);
+    }
+
+    PlatformTestUtil.startPerformanceTest("concurrent reads", 5000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        readConcurrently(strings, cores);
+      }
+    }).cpuBound().usesAllCPUCores().assertTiming();
+  }
+
+  private long readConcurrently(final List<String> strings, int threadsCount) throws Exception {
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final Thread[] threads = new Thread[threadsCount];
+    for (int i = 0; i < threadsCount; ++i) {
+      final int shift = i * strings.size() / threadsCount;
+      threads[i] = new Thread("PersistentMapTest reader " + i) {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < strings.size(); ++j) {
+              final String string = strings.get((j + shift) % strings.size());
+              assertEquals(string + "_value", myMap.get(string));
+            }
+          }
+          catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      };
+    }
+
+    final long started = System.currentTimeMillis();
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    final long time = System.currentTimeMillis() - started;
+
+    if (!errors.isEmpty()) {
+      throw new RuntimeException(errors.get(0));
+    }
+    return time;
+  }
+
   private static final boolean DO_SLOW_TEST = false;
 
   public void test2GLimit() throws IOException {
@@ -167,6 +167,79 @@ public class StringEnumeratorTest extends TestCase {
     System.out.printf("File size = %d bytes\n", myFile.length());
   }
 
+  public void testConcurrentLookupsPerformance() throws Exception {
+    final List<String> strings = new ArrayList<String>(5000);
+    final int[] ids = new int[5000];
+    for (int i = 0; i < ids.length; ++i) {
+      final String string = createRandomString();
+      strings.add(string);
+      ids[i] = myEnumerator.enumerate(string);
+    }
+
+    File file = FileUtil.createTempFile("persistent", "trie");
+    final PersistentStringEnumerator cachingEnumerator = new PersistentStringEnumerator(file, true);
+    try {
+      final int[] cachedIds = new int[ids.length];
+      for (int i = 0; i < cachedIds.length; ++i) {
+        cachedIds[i] = cachingEnumerator.enumerate(strings.get(i));
+      }
+
+      final int cores = Runtime.getRuntime().availableProcessors();
+      for (int threadsCount = 1; threadsCount <= cores; threadsCount *= 2) {
+        System.out.printf("Threads = %d, lookups = %d, time = %d ms, with cache of last mappings = %d ms\n", threadsCount,
+                          2 * threadsCount * 100 * strings.size(), lookupConcurrently(myEnumerator, strings, ids, threadsCount),
+                          lookupConcurrently(cachingEnumerator, strings, cachedIds, threadsCount));
+      }
+
+      PlatformTestUtil.startPerformanceTest("concurrent lookups", 5000, new ThrowableRunnable() {
+        @Override
+        public void run() throws Exception {
+          lookupConcurrently(myEnumerator, strings, ids, cores);
+        }
+      }).cpuBound().usesAllCPUCores().assertTiming();
+    }
+    finally {
+      cachingEnumerator.close();
+      FileUtil.delete(file);
+    }
+  }
+
+  private static long lookupConcurrently(final PersistentStringEnumerator enumerator, final List<String> strings, final int[] ids, int threadsCount)
+    throws Exception {
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final Thread[] threads = new Thread[threadsCount];
+    for (int i = 0; i < threadsCount; ++i) {
+      final int shift = i * strings.size() / threadsCount;
+      threads[i] = new Thread("StringEnumeratorTest reader " + i) {
+        @Override
+        public void run() {
+          try {
+            for (int round = 0; round < 100; ++round) {
+              for (int j = 0; j < strings.size(); ++j) {
+                final int index = (j + shift) % strings.size();
+                assertEquals(ids[index], enumerator.enumerate(strings.get(index)));
+                assertEquals(strings.get(index), enumerator.valueOf(ids[index]));
+              }
+            }
+          }
+          catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      };
+    }
+
+    final long started = System.currentTimeMillis();
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    final long time = System.currentTimeMillis() - started;
+
+    if (!errors.isEmpty()) {
+      throw new RuntimeException(errors.get(0));
+    }
+    return time;
+  }
+
   private static final StringBuilder builder = new StringBuilder(100);
   private static final Random random = new Random();
 
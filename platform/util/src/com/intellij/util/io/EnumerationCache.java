@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of value &lt;-&gt; id mappings of enumerators which can be queried without locking.
+ * Mappings are placed into fixed size tables by hash code and a new mapping simply replaces the one occupying its slot,
+ * so a lookup is a single volatile read. Mappings of several enumerators may share one cache, they are told apart by the owner.
+ */
+final class EnumerationCache {
+  private final AtomicReferenceArray<Entry> myValueToId;
+  private final AtomicReferenceArray<Entry> myIdToValue;
+  private final int myMask;
+
+  private static final class Entry {
+    final Object owner;
+    final Object value;
+    final int valueHashCode;
+    final int id;
+
+    private Entry(Object owner, Object value, int valueHashCode, int id) {
+      this.owner = owner;
+      this.value = value;
+      this.valueHashCode = valueHashCode;
+      this.id = id;
+    }
+  }
+
+  EnumerationCache(int size) {
+    int capacity = Integer.highestOneBit(Math.max(size, 16) - 1) << 1;
+    myMask = capacity - 1;
+    myValueToId = new AtomicReferenceArray<Entry>(capacity);
+    myIdToValue = new AtomicReferenceArray<Entry>(capacity);
+  }
+
+  /**
+   * @return cached id of the value or {@link PersistentEnumeratorBase#NULL_ID}
+   */
+  <Data> int getId(@NotNull Object owner, @NotNull Data value, int valueHashCode, @NotNull EqualityPolicy<Data> policy) {
+    final Entry entry = myValueToId.get(valueSlot(owner, valueHashCode));
+    if (entry != null && entry.owner == owner && entry.valueHashCode == valueHashCode && policy.isEqual((Data)entry.value, value)) {
+      return entry.id;
+    }
+    return PersistentEnumeratorBase.NULL_ID;
+  }
+
+  @Nullable
+  Object getValue(@NotNull Object owner, int id) {
+    final Entry entry = myIdToValue.get(idSlot(owner, id));
+    return entry != null && entry.owner == owner && entry.id == id ? entry.value : null;
+  }
+
+  void put(@NotNull Object owner, @NotNull Object value, int valueHashCode, int id) {
+    final Entry entry = new Entry(owner, value, valueHashCode, id);
+    myValueToId.set(valueSlot(owner, valueHashCode), entry);
+    myIdToValue.set(idSlot(owner, id), entry);
+  }
+
+  void putValue(@NotNull Object owner, int id, @NotNull Object value) {
+    myIdToValue.set(idSlot(owner, id), new Entry(owner, value, 0, id));
+  }
+
+  /**
+   * Forgets the value -&gt; id mapping if it is still cached, used when the id of the value might have become stale.
+   */
+  void removeId(@NotNull Object owner, int valueHashCode, int id) {
+    final int slot = valueSlot(owner, valueHashCode);
+    final Entry entry = myValueToId.get(slot);
+    if (entry != null && entry.owner == owner && entry.valueHashCode == valueHashCode && entry.id == id) {
+      myValueToId.compareAndSet(slot, entry, null);
+    }
+  }
+
+  void clear() {
+    for (int i = 0; i <= myMask; ++i) {
+      myValueToId.set(i, null);
+      myIdToValue.set(i, null);
+    }
+  }
+
+  private int valueSlot(Object owner, int valueHashCode) {
+    return mix(valueHashCode ^ System.identityHashCode(owner)) & myMask;
+  }
+
+  private int idSlot(Object owner, int id) {
+    return mix(id * 0x9E3779B9 ^ System.identityHashCode(owner)) & myMask;
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    return h ^ h >>> 13;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.nio.ch.DirectBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded LRU cache of byte arrays kept outside of the Java heap, in direct buffers. Unlike soft references the cached data isn't
+ * dropped on memory pressure, and the memory of evicted entries is released right away instead of waiting for GC.
+ * <p/>
+ * Every entry has a version (e.g. the timestamp of the data source): a lookup with another version misses and drops the entry.
+ * The data is copied in and out of the cache, so the buffers are never exposed to the clients.
+ */
+public class OffHeapLruCache<K> {
+  private final long mySizeLimit;
+  private final LinkedHashMap<K, Entry> myEntries = new LinkedHashMap<K, Entry>(16, 0.75f, true);
+  private long mySize;
+  private long myHits;
+  private long myMisses;
+  private long myEvictions;
+
+  public OffHeapLruCache(long sizeLimit) {
+    mySizeLimit = sizeLimit;
+  }
+
+  @Nullable
+  public synchronized byte[] get(@NotNull K key, long version) {
+    Entry entry = myEntries.get(key);
+    if (entry != null && entry.version != version) {
+      removeEntry(key);
+      entry = null;
+    }
+    if (entry == null) {
+      myMisses++;
+      return null;
+    }
+    myHits++;
+    final ByteBuffer buffer = entry.buffer.duplicate();
+    buffer.clear();
+    final byte[] result = new byte[buffer.capacity()];
+    buffer.get(result);
+    return result;
+  }
+
+  public void put(@NotNull K key, long version, @NotNull byte[] bytes, int offset, int length) {
+    // a single entry isn't allowed to push out a big part of the cache
+    if (length > mySizeLimit / 8) return;
+
+    // direct buffers are allocated out of the lock, this may take a while
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+    buffer.put(bytes, offset, length);
+
+    synchronized (this) {
+      removeEntry(key);
+      myEntries.put(key, new Entry(buffer, version));
+      mySize += length;
+
+      final Iterator<Entry> iterator = myEntries.values().iterator();
+      while (mySize > mySizeLimit && iterator.hasNext()) {
+        final Entry eldest = iterator.next();
+        iterator.remove();
+        release(eldest);
+        myEvictions++;
+      }
+    }
+  }
+
+  public synchronized void remove(@NotNull K key) {
+    removeEntry(key);
+  }
+
+  public synchronized void clear() {
+    for (Entry entry : myEntries.values()) {
+      release(entry);
+    }
+    myEntries.clear();
+  }
+
+  @NotNull
+  public synchronized Statistics getStatistics() {
+    return new Statistics(myHits, myMisses, myEvictions, myEntries.size(), mySize, mySizeLimit);
+  }
+
+  private void removeEntry(@NotNull K key) {
+    final Entry entry = myEntries.remove(key);
+    if (entry != null) {
+      release(entry);
+    }
+  }
+
+  private void release(@NotNull Entry entry) {
+    mySize -= entry.buffer.capacity();
+    DirectBufferWrapper.disposeDirectBuffer((DirectBuffer)entry.buffer);
+  }
+
+  private static class Entry {
+    private final ByteBuffer buffer;
+    private final long version;
+
+    private Entry(@NotNull ByteBuffer buffer, long version) {
+      this.buffer = buffer;
+      this.version = version;
+    }
+  }
+
+  public static class Statistics {
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final int entries;
+    public final long size;
+    public final long sizeLimit;
+
+    private Statistics(long _hits, long _misses, long _evictions, int _entries, long _size, long _sizeLimit) {
+      hits = _hits;
+      misses = _misses;
+      evictions = _evictions;
+      entries = _entries;
+      size = _size;
+      sizeLimit = _sizeLimit;
+    }
+
+    public int getHitRate() {
+      final long total = hits + misses;
+      return total == 0 ? 0 : (int)(hits * 100 / total);
+    }
+
+    @Override
+    public String toString() {
+      return "hits=" + hits + ", misses=" + misses + " (" + getHitRate() + "% hit rate), evictions=" + evictions +
+             ", entries=" + entries + ", size=" + (size / PagedFileStorage.MB) + "MB, limit=" + (sizeLimit / PagedFileStorage.MB) + "MB";
+    }
+  }
+}
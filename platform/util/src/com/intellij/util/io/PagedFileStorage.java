@@ -20,6 +20,8 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.hash.LinkedHashMap;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntProcedure;
 import jsr166e.SequenceLock;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -33,6 +35,7 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author max
@@ -91,6 +94,11 @@ public class PagedFileStorage implements Forceable {
     return myStorageLockContext;
   }
 
+  @NotNull
+  public static CacheStatistics getStatistics() {
+    return ourLock.getStatistics();
+  }
+
   private final byte[] myTypedIOBuffer;
   private volatile boolean isDirty = false;
   private final File myFile;
@@ -438,7 +446,8 @@ public class PagedFileStorage implements Forceable {
 
     private final LinkedHashMap<Integer, ByteBufferWrapper> mySegments;
     private final SequenceLock mySegmentsAccessLock = new SequenceLock(); // protects map operations of mySegments, needed for LRU order, mySize and myMappingChangeCount
-    // todo avoid locking for access
+    // read-mostly view of mySegments, updated together with it, allows to find mapped segment without mySegmentsAccessLock
+    private final ConcurrentHashMap<Integer, ByteBufferWrapper> myLoadedSegments = new ConcurrentHashMap<Integer, ByteBufferWrapper>();
 
     private final SequenceLock mySegmentsAllocationLock = new SequenceLock();
     private final ConcurrentLinkedQueue<ByteBufferWrapper> mySegmentsToRemove = new ConcurrentLinkedQueue<ByteBufferWrapper>();
@@ -446,35 +455,77 @@ public class PagedFileStorage implements Forceable {
     private volatile long mySizeLimit;
     private volatile int myMappingChangeCount;
 
+    private final AtomicLong myHits = new AtomicLong();
+    private volatile long myMisses;    // updated under mySegmentsAllocationLock
+    private volatile long myRemaps;    // updated under mySegmentsAllocationLock
+    private volatile long myEvictions; // updated under mySegmentsAccessLock
+    private final TIntHashSet myEvictedPages = new TIntHashSet(); // protected by mySegmentsAccessLock
+    private boolean myEvictingEldest;                              // protected by mySegmentsAccessLock
+
     public StorageLock() {
       this(true);
     }
 
     public StorageLock(boolean checkThreadAccess) {
+      this(checkThreadAccess, UPPER_LIMIT);
+    }
+
+    /**
+     * Creates lock with its own page cache limited by <code>sizeLimit</code> bytes, so storages using it do not compete
+     * for mapped pages with the storages of other locks.
+     */
+    public StorageLock(boolean checkThreadAccess, long sizeLimit) {
       myDefaultStorageLockContext = new StorageLockContext(this, checkThreadAccess);
 
-      mySizeLimit = UPPER_LIMIT;
+      mySizeLimit = Math.max(BUFFER_SIZE, Math.min(sizeLimit, UPPER_LIMIT));
       mySegments = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f) {
         @Override
         protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
           return mySize > mySizeLimit;
         }
 
+        @Override
+        public void doRemoveEldestEntry() {
+          myEvictingEldest = true;
+          try {
+            super.doRemoveEldestEntry();
+          }
+          finally {
+            myEvictingEldest = false;
+          }
+        }
+
         @Nullable
         @Override
         public ByteBufferWrapper remove(Object key) {
           // this method can be called after removeEldestEntry
           ByteBufferWrapper wrapper = super.remove(key);
           if (wrapper != null) {
+            myLoadedSegments.remove(key);
             ++myMappingChangeCount;
             mySegmentsToRemove.offer(wrapper);
             mySize -= wrapper.myLength;
+            if (myEvictingEldest) {
+              ++myEvictions;
+              myEvictedPages.add((Integer)key);
+            }
           }
           return wrapper;
         }
+
+        @Override
+        public ByteBufferWrapper put(Integer key, @NotNull ByteBufferWrapper value) {
+          myLoadedSegments.put(key, value);
+          return super.put(key, value);
+        }
       };
     }
 
+    @NotNull
+    public CacheStatistics getStatistics() {
+      return new CacheStatistics(myHits.get(), myMisses, myRemaps, myEvictions, mySize, mySizeLimit);
+    }
+
     public void lock() {
       myDefaultStorageLockContext.myLock.lock();
     }
@@ -500,14 +551,19 @@ public class PagedFileStorage implements Forceable {
     }
 
     private ByteBufferWrapper get(Integer key) {
-      ByteBufferWrapper wrapper;
-      try {         // fast path
-        mySegmentsAccessLock.lock();
-        wrapper = mySegments.get(key);
-        if (wrapper != null) return wrapper;
-      }
-      finally {
-        mySegmentsAccessLock.unlock();
+      ByteBufferWrapper wrapper = myLoadedSegments.get(key);
+      if (wrapper != null) { // fast path
+        myHits.incrementAndGet();
+        // LRU order is only a hint, do not wait for it if somebody else updates the segments
+        if (mySegmentsAccessLock.tryLock()) {
+          try {
+            mySegments.get(key);
+          }
+          finally {
+            mySegmentsAccessLock.unlock();
+          }
+        }
+        return wrapper;
       }
 
       mySegmentsAllocationLock.lock();
@@ -516,7 +572,12 @@ public class PagedFileStorage implements Forceable {
         mySegmentsAccessLock.lock();
         try {
           wrapper = mySegments.get(key);
-          if (wrapper != null) return wrapper;
+          if (wrapper != null) {
+            myHits.incrementAndGet();
+            return wrapper;
+          }
+          ++myMisses;
+          if (myEvictedPages.remove(key)) ++myRemaps;
         } finally {
           mySegmentsAccessLock.unlock();
         }
@@ -655,7 +716,8 @@ public class PagedFileStorage implements Forceable {
       }
     }
 
-    private void unmapBuffersForOwner(int index, StorageLockContext storageLockContext) {
+    private void unmapBuffersForOwner(final int index, StorageLockContext storageLockContext) {
+      forgetEvictedPagesForOwner(index);
       final Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index, storageLockContext);
 
       if (buffers != null) {
@@ -678,6 +740,25 @@ public class PagedFileStorage implements Forceable {
       }
     }
 
+    private void forgetEvictedPagesForOwner(final int index) {
+      mySegmentsAccessLock.lock();
+      try {
+        if (myEvictedPages.isEmpty()) return;
+        final TIntHashSet ownerPages = new TIntHashSet();
+        myEvictedPages.forEach(new TIntProcedure() {
+          @Override
+          public boolean execute(int page) {
+            if ((page & FILE_INDEX_MASK) == index) ownerPages.add(page);
+            return true;
+          }
+        });
+        myEvictedPages.removeAll(ownerPages.toArray());
+      }
+      finally {
+        mySegmentsAccessLock.unlock();
+      }
+    }
+
     private void flushBuffersForOwner(int index, StorageLockContext storageLockContext) {
       Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index, storageLockContext);
 
@@ -711,6 +792,30 @@ public class PagedFileStorage implements Forceable {
     }
   }
 
+  public static class CacheStatistics {
+    public final long hits;
+    public final long misses;
+    public final long remaps;
+    public final long evictions;
+    public final long mappedSize;
+    public final long sizeLimit;
+
+    private CacheStatistics(long _hits, long _misses, long _remaps, long _evictions, long _mappedSize, long _sizeLimit) {
+      hits = _hits;
+      misses = _misses;
+      remaps = _remaps;
+      evictions = _evictions;
+      mappedSize = _mappedSize;
+      sizeLimit = _sizeLimit;
+    }
+
+    @Override
+    public String toString() {
+      return "hits=" + hits + ", misses=" + misses + ", remaps=" + remaps + ", evictions=" + evictions +
+             ", mapped=" + (mappedSize / MB) + "MB, limit=" + (sizeLimit / MB) + "MB";
+    }
+  }
+
   public static class StorageLockContext {
     private final boolean myCheckThreadAccess;
     private final SequenceLock myLock;
@@ -721,7 +826,7 @@ public class PagedFileStorage implements Forceable {
       this(lock, true);
     }
 
-    private StorageLockContext(StorageLock lock, boolean checkAccess) {
+    public StorageLockContext(@NotNull StorageLock lock, boolean checkAccess) {
       myLock = new SequenceLock();
       myStorageLock = lock;
       myCheckThreadAccess = checkAccess;
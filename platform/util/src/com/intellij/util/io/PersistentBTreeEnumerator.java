@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -85,7 +85,8 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
           initialSize,
           ourVersion,
           new RecordBufferHandler(),
-          false
+          // inline keys are cheap to look up, while their mappings would evict the others from the shared cache
+          !(dataDescriptor instanceof InlineKeyDescriptor)
     );
 
     myInlineKeysNoMapping = myDataDescriptor instanceof InlineKeyDescriptor && !wantKeyMapping();
@@ -22,8 +22,6 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
-import com.intellij.util.containers.SLRUMap;
-import com.intellij.util.containers.ShareableKey;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
@@ -55,8 +53,6 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
   private boolean myDirty = false;
   protected final KeyDescriptor<Data> myDataDescriptor;
 
-  private static final CacheKey ourFlyweight = new FlyweightKey();
-
   protected final File myFile;
   private boolean myCorrupted = false;
   private final MyDataIS myKeyReadStream;
@@ -65,6 +61,8 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
   private volatile boolean myDirtyStatusUpdateInProgress;
   private Flushable myMarkCleanCallback;
   private final boolean myDoCaching;
+  // incremented when a value gets a new id, ids found before that might be stale and must not be cached
+  private volatile int myReEnumerationCount;
 
   public static class Version {
     private final int correctlyClosedMagic;
@@ -84,50 +82,14 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
     abstract void setupRecord(T enumerator, int hashCode, final int dataOffset, final byte[] buf);
   }
 
-  private static class CacheKey implements ShareableKey {
-    public PersistentEnumeratorBase owner;
-    public Object key;
-
-    private CacheKey(Object key, PersistentEnumeratorBase owner) {
-      this.key = key;
-      this.owner = owner;
-    }
-
-    @Override
-    public ShareableKey getStableCopy() {
-      return this;
-    }
-
-    public boolean equals(final Object o) {
-      if (this == o) return true;
-      if (!(o instanceof CacheKey)) return false;
-
-      final CacheKey cacheKey = (CacheKey)o;
-
-      if (!key.equals(cacheKey.key)) return false;
-      if (!owner.equals(cacheKey.owner)) return false;
-
-      return true;
-    }
-
-    public int hashCode() {
-      return key.hashCode();
-    }
-  }
-
-  private static CacheKey sharedKey(Object key, PersistentEnumeratorBase owner) {
-    ourFlyweight.key = key;
-    ourFlyweight.owner = owner;
-    return ourFlyweight;
-  }
-
   private static final int ENUMERATION_CACHE_SIZE;
   static {
     String property = System.getProperty("idea.enumerationCacheSize");
     ENUMERATION_CACHE_SIZE = property == null ? 8192 : Integer.valueOf(property);
   }
 
-  private static final SLRUMap<Object, Integer> ourEnumerationCache = new SLRUMap<Object, Integer>(ENUMERATION_CACHE_SIZE, ENUMERATION_CACHE_SIZE);
+  // shared by all the caching enumerators, lookups in it don't take the storage lock
+  private static final EnumerationCache ourEnumerationCache = new EnumerationCache(ENUMERATION_CACHE_SIZE);
 
   @TestOnly
   public static void clearCacheForTests() {
@@ -255,13 +217,14 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
   }
 
   private int doEnumerate(Data value, boolean onlyCheckForExisting, boolean saveNewValue) throws IOException {
-    if (myDoCaching && !saveNewValue) {
-      synchronized (ourEnumerationCache) {
-        final Integer cachedId = ourEnumerationCache.get(sharedKey(value, this));
-        if (cachedId != null) return cachedId.intValue();
-      }
+    final boolean doCaching = myDoCaching && value != null;
+    final int valueHashCode = doCaching ? myDataDescriptor.getHashCode(value) : 0;
+    if (doCaching && !saveNewValue) {
+      final int cachedId = ourEnumerationCache.getId(this, value, valueHashCode, myDataDescriptor);
+      if (cachedId != NULL_ID) return cachedId;
     }
 
+    final int reEnumerationCount = myReEnumerationCount;
     final int id;
     try {
       id = enumerateImpl(value, onlyCheckForExisting, saveNewValue);
@@ -276,9 +239,13 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
       throw new IOException(e);
     }
 
-    if (myDoCaching && id != NULL_ID) {
-      synchronized (ourEnumerationCache) {
-        ourEnumerationCache.put(new CacheKey(value, this), id);
+    if (saveNewValue) ++myReEnumerationCount;
+
+    if (doCaching && id != NULL_ID) {
+      ourEnumerationCache.put(this, value, valueHashCode, id);
+      if (!saveNewValue && reEnumerationCount != myReEnumerationCount) {
+        // the value might have been re-enumerated concurrently and its new id cached before ours
+        ourEnumerationCache.removeId(this, valueHashCode, id);
       }
     }
 
@@ -518,6 +485,20 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
   }
 
   public Data valueOf(int idx) throws IOException {
+    if (myDoCaching) {
+      final Object cached = ourEnumerationCache.getValue(this, idx);
+      if (cached != null) return (Data)cached;
+    }
+
+    final Data value = doValueOf(idx);
+    if (myDoCaching && value != null) {
+      // the id may be a stale one of a re-enumerated value, so only the id -> value mapping is cached
+      ourEnumerationCache.putValue(this, idx, value);
+    }
+    return value;
+  }
+
+  private Data doValueOf(int idx) throws IOException {
     lockStorage();
     try {
       int addr = indexToAddr(idx);
@@ -691,15 +672,4 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
       }
     }
   }
-
-  private static class FlyweightKey extends CacheKey {
-    public FlyweightKey() {
-      super(null, null);
-    }
-
-    @Override
-    public ShareableKey getStableCopy() {
-      return new CacheKey(key, owner);
-    }
-  }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,8 +21,11 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -30,6 +33,7 @@ import org.jetbrains.annotations.TestOnly;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Eugene Zhuravlev
@@ -52,6 +56,27 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   public static final String DATA_FILE_EXTENSION = ".values";
   private long myLiveAndGarbageKeysCounter; // first four bytes contain live keys count (updated via LIVE_KEY_MASK), last four bytes - number of dead keys
   private int myReadCompactionGarbageSize;
+
+  private static final boolean ourBackgroundCompaction = SystemProperties.getBooleanProperty("idea.persistent.hash.map.background.compact", true);
+  private static final ThreadPoolExecutor ourCompactionExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "PersistentHashMap compaction");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  static {
+    ourCompactionExecutor.allowCoreThreadTimeOut(true);
+  }
+  private volatile Future<?> myCompactionFuture;
+  // set by the constructor, the background compaction is started by the first operation on the map, under the map lock
+  private boolean myCompactionRequested;
+  // keys whose values were changed while the values were being copied by the compaction, tracked under the map lock
+  @Nullable private TIntHashSet myChangedKeyIdsDuringCompaction;
+  @Nullable private Set<Key> myChangedKeysDuringCompaction;
+  private volatile long myLastCompactionDuration = -1;
+  @Nullable private volatile Runnable myValuesCopiedHook; // see setValuesCopiedHook()
   private static final long LIVE_KEY_MASK = (1L << 32);
   private static final long USED_LONG_VALUE_MASK = 1L << 62;
   private static final int POSITIVE_VALUE_SHIFT = 1;
@@ -182,7 +207,13 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
       if (makesSenseToCompact()) {
-        compact();
+        if (ourBackgroundCompaction && doNewCompact()) {
+          // not started right away: the map isn't fully constructed until the subclass constructors complete
+          myCompactionRequested = true;
+        }
+        else {
+          compact();
+        }
       }
     }
     catch (IOException e) {
@@ -231,12 +262,43 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     return (int)myLiveAndGarbageKeysCounter;
   }
 
+  /**
+   * @return share of dead keys among all the keys having values in the value storage
+   */
+  public float getGarbageRatio() {
+    synchronized (myEnumerator) {
+      int liveKeys = (int)(myLiveAndGarbageKeysCounter / LIVE_KEY_MASK);
+      int deadKeys = (int)(myLiveAndGarbageKeysCounter & DEAD_KEY_NUMBER_MASK);
+      return liveKeys + deadKeys == 0 ? 0 : (float)deadKeys / (liveKeys + deadKeys);
+    }
+  }
+
+  /**
+   * @return duration of the last compaction of this map in ms, or -1 if it wasn't compacted since being opened
+   */
+  public long getLastCompactionDuration() {
+    return myLastCompactionDuration;
+  }
+
+  public boolean isCompacting() {
+    return myCompactionFuture != null;
+  }
+
+  /**
+   * @param hook  run by the incremental compaction after the values are copied, before the map switches to the new value storage
+   */
+  @TestOnly
+  public void setValuesCopiedHook(@Nullable Runnable hook) {
+    myValuesCopiedHook = hook;
+  }
+
   public File getBaseFile() {
     return myEnumerator.myFile;
   }
 
   @TestOnly // public for tests
   public boolean makesSenseToCompact() {
+    if (isCompacting()) return false;
     final long fileSize = getDataFile(myEnumerator.myFile).length();
     final int megabyte = 1024 * 1024;
 
@@ -288,6 +350,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final void put(Key key, Value value) throws IOException {
     synchronized (myEnumerator) {
+      startRequestedCompaction();
       doPut(key, value);
     }
   }
@@ -326,6 +389,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final int enumerate(Key name) throws IOException {
     synchronized (myEnumerator) {
+      startRequestedCompaction();
       myIntAddressForNewRecord = canUseIntAddressForNewRecord(myValueStorage.getSize());
       return super.enumerate(name);
     }
@@ -337,6 +401,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   
   public final void appendData(Key key, @NotNull ValueDataAppender appender) throws IOException {
     synchronized (myEnumerator) {
+      startRequestedCompaction();
       doAppendData(key, appender);
     }
   }
@@ -361,6 +426,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final boolean processKeys(Processor<Key> processor) throws IOException {
     synchronized (myEnumerator) {
+      startRequestedCompaction();
       myAppendCache.clear();
       return myEnumerator.iterateData(processor);
     }
@@ -375,6 +441,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   public final boolean processKeysWithExistingMapping(Processor<Key> processor) throws IOException {
     synchronized (myEnumerator) {
+      startRequestedCompaction();
       myAppendCache.clear();
       return myEnumerator.processAllDataObject(processor, new PersistentEnumerator.DataFilter() {
         @Override
@@ -387,13 +454,36 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Override
   public final Value get(Key key) throws IOException {
+    return doGet(key);
+  }
+
+  /**
+   * Unlike other doXXX methods this one is called without holding the map lock: only the storage access is performed under it
+   * and the value is deserialized afterwards, so concurrent readers do not wait for each other's (possibly expensive) value externalizer.
+   * Overriders that access their own state should synchronize on myEnumerator.
+   */
+  @Nullable
+  protected Value doGet(Key key) throws IOException {
+    final byte[] bytes;
     synchronized (myEnumerator) {
-      return doGet(key);
+      bytes = readValueBytes(key);
+    }
+    if (bytes == null) {
+      return null;
+    }
+
+    final DataInputStream input = new DataInputStream(new UnsyncByteArrayInputStream(bytes));
+    try {
+      return myValueExternalizer.read(input);
+    }
+    finally {
+      input.close();
     }
   }
 
   @Nullable
-  protected Value doGet(Key key) throws IOException {
+  private byte[] readValueBytes(Key key) throws IOException {
+    startRequestedCompaction();
     myEnumerator.lockStorage();
     try {
       myAppendCache.remove(key);
@@ -414,14 +504,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         myLiveAndGarbageKeysCounter++;
         myReadCompactionGarbageSize += readResult.buffer.length;
       }
-
-      final DataInputStream input = new DataInputStream(new UnsyncByteArrayInputStream(readResult.buffer));
-      try {
-        return myValueExternalizer.read(input);
-      }
-      finally {
-        input.close();
-      }
+      return readResult.buffer;
     }
     finally {
       myEnumerator.unlockStorage();
@@ -430,6 +513,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   public final boolean containsMapping(Key key) throws IOException {
     synchronized (myEnumerator) {
+      startRequestedCompaction();
       return doContainsMapping(key);
     }
   }
@@ -451,6 +535,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   public final void remove(Key key) throws IOException {
     synchronized (myEnumerator) {
+      startRequestedCompaction();
       doRemove(key);
     }
   }
@@ -514,6 +599,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Override
   public final void close() throws IOException {
+    waitForCompaction();
     synchronized (myEnumerator) {
       doClose();
     }
@@ -555,6 +641,15 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   // made public for tests
   public void compact() throws IOException {
+    synchronized (myEnumerator) {
+      myCompactionRequested = false;
+    }
+    waitForCompaction();
+    if (doNewCompact()) {
+      compactIncrementally();
+      return;
+    }
+
     synchronized (myEnumerator) {
       LOG.info("Compacting "+myEnumerator.myFile.getPath());
       LOG.info("Live keys:" + ((int)(myLiveAndGarbageKeysCounter  / LIVE_KEY_MASK)) +
@@ -571,23 +666,19 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myReadCompactionGarbageSize = 0;
 
       try {
-        if (doNewCompact()) {
-          newCompact(newStorage);
-        } else {
-          traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
-            @Override
-            public boolean process(final int keyId) throws IOException {
-              final long record = readValueId(keyId);
-              if (record != NULL_ADDR) {
-                PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
-                long value = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
-                updateValueId(keyId, value, record, null, getCurrentKey());
-                myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
-              }
-              return true;
+        traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+          @Override
+          public boolean process(final int keyId) throws IOException {
+            final long record = readValueId(keyId);
+            if (record != NULL_ADDR) {
+              PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+              long value = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+              updateValueId(keyId, value, record, null, getCurrentKey());
+              myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
             }
-          });
-        }
+            return true;
+          }
+        });
       }
       finally {
         newStorage.dispose();
@@ -599,46 +690,166 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
 
       myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
-      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
+      myLastCompactionDuration = System.currentTimeMillis() - now;
+      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + myLastCompactionDuration + "ms.");
       myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
       myEnumerator.putMetaData2( myLargeIndexWatermarkId );
     }
   }
 
-  private void newCompact(PersistentHashMapValueStorage newStorage) throws IOException {
-    long started = System.currentTimeMillis();
-    final List<CompactionRecordInfo> infos = new ArrayList<CompactionRecordInfo>(10000);
+  private void startRequestedCompaction() {
+    if (myCompactionRequested) {
+      myCompactionRequested = false;
+      compactInBackground();
+    }
+  }
 
-    traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+  private void compactInBackground() {
+    final FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
       @Override
-      public boolean process(final int keyId) throws IOException {
-        final long record = readValueId(keyId);
-        if (record != NULL_ADDR) {
-          infos.add(new CompactionRecordInfo(getCurrentKey(), record, keyId));
+      public void run() {
+        try {
+          compactIncrementally();
+        }
+        catch (Throwable e) {
+          LOG.info("Background compaction of " + myEnumerator.myFile.getPath() + " failed", e);
+        }
+        finally {
+          myCompactionFuture = null;
         }
-        return true;
       }
-    });
+    }, null);
+    // published before the task can run, so that it can't be cleared by the task before being set
+    myCompactionFuture = task;
+    ourCompactionExecutor.execute(task);
+  }
 
-    LOG.info("Loaded mappings:"+(System.currentTimeMillis() - started) + "ms,");
-    started = System.currentTimeMillis();
-    int fragments = 0;
-    if (infos.size() > 0) fragments = myValueStorage.compactValues(infos, newStorage);
-    LOG.info("Compacted values for:"+(System.currentTimeMillis() - started) + "ms fragments:"+fragments + ", keys:"+infos.size());
+  private void waitForCompaction() {
+    final Future<?> future = myCompactionFuture;
+    if (future != null) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+  }
 
-    started = System.currentTimeMillis();
-    try {
-      myEnumerator.lockStorage();
+  /**
+   * Copies the live values into a new value storage. Only taking the snapshot of the mappings and switching to the new storage
+   * are done under the map lock, the values are copied while the map stays accessible: the values changed in the meantime
+   * are tracked by {@link #updateValueId} and copied again before the switch.
+   */
+  private void compactIncrementally() throws IOException {
+    final List<CompactionRecordInfo> infos = new ArrayList<CompactionRecordInfo>(10000);
+    final File dataFile = getDataFile(myEnumerator.myFile);
+    final File newFile = new File(dataFile.getPath() + ".new");
+    final PersistentHashMapValueStorage snapshot;
+    final PersistentHashMapValueStorage newStorage;
+    final long sizeBefore;
+    final long now = System.currentTimeMillis();
 
-      for(int i = 0; i < infos.size(); ++i) {
-        CompactionRecordInfo info = infos.get(i);
-        updateValueId(info.address, info.newValueAddress, info.valueAddress, null, info.key);
-        myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+    synchronized (myEnumerator) {
+      if (isClosed()) return;
+      LOG.info("Compacting " + myEnumerator.myFile.getPath() + ", live keys:" + ((int)(myLiveAndGarbageKeysCounter / LIVE_KEY_MASK)) +
+               ", dead keys:" + ((int)(myLiveAndGarbageKeysCounter & DEAD_KEY_NUMBER_MASK)) +
+               ", read compaction size:" + myReadCompactionGarbageSize);
+
+      traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+        @Override
+        public boolean process(final int keyId) throws IOException {
+          final long record = readValueId(keyId);
+          if (record != NULL_ADDR) {
+            infos.add(new CompactionRecordInfo(getCurrentKey(), record, keyId));
+          }
+          return true;
+        }
+      });
+
+      FileUtil.delete(newFile);
+      newStorage = PersistentHashMapValueStorage.create(newFile.getPath());
+      snapshot = myValueStorage.createSnapshot();
+      sizeBefore = snapshot.getSize();
+      myChangedKeyIdsDuringCompaction = new TIntHashSet();
+      myChangedKeysDuringCompaction = new THashSet<Key>();
+    }
+    LOG.info("Loaded mappings:" + (System.currentTimeMillis() - now) + "ms,");
+
+    boolean switched = false;
+    try {
+      long started = System.currentTimeMillis();
+      int fragments = 0;
+      if (infos.size() > 0) fragments = snapshot.compactValues(infos, newStorage);
+      LOG.info("Compacted values for:" + (System.currentTimeMillis() - started) + "ms fragments:" + fragments + ", keys:" + infos.size());
+      final Runnable hook = myValuesCopiedHook;
+      if (hook != null) {
+        hook.run();
+      }
+
+      synchronized (myEnumerator) {
+        if (isClosed()) return;
+        started = System.currentTimeMillis();
+        final TIntHashSet changedKeyIds = myChangedKeyIdsDuringCompaction;
+        final Set<Key> changedKeys = myChangedKeysDuringCompaction;
+        myChangedKeyIdsDuringCompaction = null;
+        myChangedKeysDuringCompaction = null;
+        assert changedKeyIds != null && changedKeys != null;
+
+        myEnumerator.lockStorage();
+        try {
+          int liveKeys = 0;
+          for (CompactionRecordInfo info : infos) {
+            if (changedKeyIds.contains(info.address)) continue;
+            updateValueId(info.address, info.newValueAddress, info.valueAddress, null, info.key);
+            ++liveKeys;
+          }
+          for (Key key : changedKeys) {
+            final int id = tryEnumerate(key);
+            if (id == PersistentEnumerator.NULL_ID) continue;
+            final long record = readValueId(id);
+            if (record == NULL_ADDR) continue;
+            final byte[] bytes = myValueStorage.readBytes(record).buffer;
+            updateValueId(id, newStorage.appendBytes(bytes, 0, bytes.length, 0), record, key, 0);
+            ++liveKeys;
+          }
+
+          myValueStorage.dispose();
+          newStorage.dispose();
+          snapshot.dispose();
+          switched = true;
+          FileUtil.rename(newFile, dataFile);
+          myValueStorage = PersistentHashMapValueStorage.create(dataFile.getPath());
+
+          myLiveAndGarbageKeysCounter = liveKeys * LIVE_KEY_MASK;
+          myReadCompactionGarbageSize = 0;
+          myEnumerator.markDirty(true);
+          myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+          myEnumerator.putMetaData2(myLargeIndexWatermarkId);
+          LOG.info("Updated mappings:" + (System.currentTimeMillis() - started) + " ms, values changed during compaction:" + changedKeys.size());
+        }
+        finally {
+          myEnumerator.unlockStorage();
+        }
+      }
+      myLastCompactionDuration = System.currentTimeMillis() - now;
+      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + dataFile.length() + " bytes in " +
+               myLastCompactionDuration + "ms.");
+    }
+    finally {
+      if (!switched) {
+        synchronized (myEnumerator) {
+          myChangedKeyIdsDuringCompaction = null;
+          myChangedKeysDuringCompaction = null;
+        }
+        snapshot.dispose();
+        newStorage.dispose();
+        FileUtil.delete(newFile);
       }
-    } finally {
-      myEnumerator.unlockStorage();
     }
-    LOG.info("Updated mappings:" + (System.currentTimeMillis() - started) + " ms");
   }
 
   private long readValueId(final int keyId) {
@@ -663,6 +874,10 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private int requests;
 
   private int updateValueId(int keyId, long value, long oldValue, @Nullable Key key, int processingKey) throws IOException {
+    if (myChangedKeyIdsDuringCompaction != null && myChangedKeysDuringCompaction != null) {
+      myChangedKeyIdsDuringCompaction.add(keyId);
+      myChangedKeysDuringCompaction.add(key != null ? key : myEnumerator.getValue(keyId, processingKey));
+    }
     final boolean newKey = oldValue == NULL_ADDR;
     if (newKey) ++requests;
     boolean defaultSizeInfo = true;
@@ -40,6 +40,7 @@ public class PersistentHashMapValueStorage {
   private final File myFile;
   private final String myPath;
   private boolean myCompactionMode = false;
+  private boolean mySnapshot = false;
 
   private static final int CACHE_PROTECTED_QUEUE_SIZE = 10;
   private static final int CACHE_PROBATIONAL_QUEUE_SIZE = 20;
@@ -73,6 +74,24 @@ public class PersistentHashMapValueStorage {
     }
   }
 
+  private PersistentHashMapValueStorage(String path, long size) {
+    myPath = path;
+    myFile = new File(path);
+    mySize = size;
+    myCompactionModeReader = new FileReader(myFile);
+    myCompactionMode = true;
+    mySnapshot = true;
+  }
+
+  /**
+   * @return read-only storage in compaction mode over the data appended so far, it has its own reader and doesn't touch
+   * the shared file accessors, so the values can be compacted from it while this storage is being appended to
+   */
+  public PersistentHashMapValueStorage createSnapshot() {
+    force();
+    return new PersistentHashMapValueStorage(myPath, mySize);
+  }
+
   private long smallWrites;
   private int smallWritesCount;
   private long largeWrites;
@@ -379,8 +398,10 @@ public class PersistentHashMapValueStorage {
   }
 
   public void dispose() {
-    ourReadersCache.remove(myPath);
-    ourAppendersCache.remove(myPath);
+    if (!mySnapshot) {
+      ourReadersCache.remove(myPath);
+      ourAppendersCache.remove(myPath);
+    }
 
     if (myCompactionModeReader != null) {
       myCompactionModeReader.dispose();
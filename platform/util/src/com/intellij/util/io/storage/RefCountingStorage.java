@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2010 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,7 +21,6 @@ package com.intellij.util.io.storage;
 
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
-import com.intellij.openapi.util.io.StreamUtil;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.containers.ConcurrentHashMap;
 import com.intellij.util.io.PagePool;
@@ -31,11 +30,12 @@ import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 public class RefCountingStorage extends AbstractStorage {
   private final Map<Integer, Future<?>> myPendingWriteRequests = new ConcurrentHashMap<Integer, Future<?>>();
@@ -60,53 +60,64 @@ public class RefCountingStorage extends AbstractStorage {
 
   public DataInputStream readStream(int record) throws IOException {
     if (myDoNotZipCaches) return super.readStream(record);
-    BufferExposingByteArrayOutputStream stream = internalReadStream(record);
-    return new DataInputStream(new UnsyncByteArrayInputStream(stream.getInternalBuffer(), 0, stream.size()));
+    ByteSequence bytes = readByteSequence(record, 0);
+    return new DataInputStream(new UnsyncByteArrayInputStream(bytes.getBytes(), bytes.getOffset(), bytes.getLength()));
   }
 
   @Override
   protected byte[] readBytes(int record) throws IOException {
     if (myDoNotZipCaches) return super.readBytes(record);
-    return internalReadStream(record).toByteArray();
+    ByteSequence bytes = readByteSequence(record, 0);
+    byte[] result = bytes.getBytes();
+    return result.length == bytes.getLength() ? result : Arrays.copyOf(result, bytes.getLength());
   }
 
-  private BufferExposingByteArrayOutputStream internalReadStream(int record) throws IOException {
+  /**
+   * Reads the record without intermediate copies: the data is inflated right into the buffer of the returned sequence.
+   * The caller owns the buffer, it is not shared with the storage.
+   *
+   * @param expectedLength the length of the record data if known (e.g. the length of the file), 0 otherwise; when it is
+   *                       exact, the buffer of the returned sequence has exactly this size
+   */
+  public ByteSequence readByteSequence(int record, int expectedLength) throws IOException {
+    if (myDoNotZipCaches) return new ByteSequence(super.readBytes(record));
     waitForPendingWriteForRecord(record);
 
-    synchronized (myLock) {
-
-      byte[] result = super.readBytes(record);
-      InflaterInputStream in = new CustomInflaterInputStream(result);
-      try {
-        final BufferExposingByteArrayOutputStream outputStream = new BufferExposingByteArrayOutputStream();
-        StreamUtil.copyStreamContent(in, outputStream);
-        return outputStream;
-      }
-      finally {
-        in.close();
+    // inflating doesn't need the storage lock, super.readBytes() takes it for the read itself
+    byte[] compressed = super.readBytes(record);
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      byte[] buffer = new byte[expectedLength > 0 ? expectedLength : Math.max(compressed.length * 4, 256)];
+      byte[] scratch = null;
+      int size = 0;
+      while (!inflater.finished()) {
+        int inflated;
+        if (size < buffer.length) {
+          inflated = inflater.inflate(buffer, size, buffer.length - size);
+        }
+        else {
+          // the data may fill the buffer exactly with only the end of the stream left to read, so the buffer is grown
+          // only if there is more data
+          if (scratch == null) scratch = new byte[256];
+          inflated = inflater.inflate(scratch);
+          if (inflated > 0) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + inflated));
+            System.arraycopy(scratch, 0, buffer, size, inflated);
+          }
+        }
+        if (inflated == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        size += inflated;
       }
+      return new ByteSequence(buffer, 0, size);
     }
-  }
-
-  private static class CustomInflaterInputStream extends InflaterInputStream {
-    public CustomInflaterInputStream(byte[] compressedData) {
-      super(new UnsyncByteArrayInputStream(compressedData), new Inflater(), 1);
-      // force to directly use compressed data, this ensures less round trips with native extraction code and copy streams
-      this.buf = compressedData;
-      this.len = -1;
-    }
-
-    @Override
-    protected void fill() throws IOException {
-      if (len >= 0) throw new EOFException();
-      len = buf.length;
-      inf.setInput(buf, 0, len);
+    catch (DataFormatException e) {
+      throw new IOException(e);
     }
-
-    @Override
-    public void close() throws IOException {
-      super.close();
-      inf.end(); // custom inflater need explicit dispose
+    finally {
+      inflater.end();
     }
   }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -65,7 +65,7 @@ public class CharArrayUtil {
   public static void getChars(@NotNull CharSequence src, @NotNull char[] dst, int srcOffset, int dstOffset, int len) {
     if (len >= GET_CHARS_THRESHOLD) {
       if (src instanceof String) {
-        ((String)src).getChars(srcOffset, len, dst, dstOffset);
+        ((String)src).getChars(srcOffset, srcOffset + len, dst, dstOffset);
         return;
       }
       else if (src instanceof CharBuffer) {
@@ -77,7 +77,11 @@ public class CharArrayUtil {
         return;
       }
       else if (src instanceof CharSequenceBackedByArray) {
-        ((CharSequenceBackedByArray)src.subSequence(srcOffset, len)).getChars(dst, dstOffset);
+        ((CharSequenceBackedByArray)src.subSequence(srcOffset, srcOffset + len)).getChars(dst, dstOffset);
+        return;
+      }
+      else if (src instanceof ImmutableText) {
+        ((ImmutableText)src).getChars(srcOffset, srcOffset + len, dst, dstOffset);
         return;
       }
       else if (src instanceof StringBuffer) {
@@ -130,6 +134,10 @@ public class CharArrayUtil {
       return ((CharSequenceBackedByArray)seq).getChars();
     }
 
+    if (seq instanceof ImmutableText) {
+      return ((ImmutableText)seq).toCharArray();
+    }
+
     if (seq instanceof CharBuffer) {
       final CharBuffer buffer = (CharBuffer)seq;
       if (buffer.hasArray() && !buffer.isReadOnly() && buffer.arrayOffset() == 0) {
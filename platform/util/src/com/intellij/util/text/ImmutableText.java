@@ -0,0 +1,309 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable text represented as a balanced binary tree (rope) of small char arrays.
+ * <p/>
+ * Insertion, deletion and taking a sub-text take O(log n) and share all the untouched leaves with the original text,
+ * so a modified copy of a large text is cheap to produce and any instance can be used as a snapshot from any thread.
+ * Random access by {@link #charAt(int)} takes O(log n) too, but sequential access hits the leaf found by the previous call.
+ *
+ * @see CharArrayUtil#fromSequence(CharSequence)
+ */
+public final class ImmutableText implements CharSequence {
+  // leaves are merged when the result fits into the block
+  private static final int BLOCK_SIZE = 1 << 9;
+
+  public static final ImmutableText EMPTY = new ImmutableText(new Leaf(ArrayUtil.EMPTY_CHAR_ARRAY));
+
+  private final Node myRoot;
+  private volatile LeafRef myLastLeaf; // the leaf used by the last charAt() call
+
+  private ImmutableText(@NotNull Node root) {
+    myRoot = root;
+  }
+
+  @NotNull
+  public static ImmutableText valueOf(@NotNull CharSequence text) {
+    if (text instanceof ImmutableText) return (ImmutableText)text;
+    if (text.length() == 0) return EMPTY;
+    return new ImmutableText(build(text, 0, text.length()));
+  }
+
+  @NotNull
+  private static Node build(@NotNull CharSequence text, int start, int end) {
+    final int length = end - start;
+    if (length <= BLOCK_SIZE) {
+      final char[] chars = new char[length];
+      if (text instanceof String) {
+        ((String)text).getChars(start, end, chars, 0);
+      }
+      else {
+        for (int i = 0; i < length; i++) {
+          chars[i] = text.charAt(start + i);
+        }
+      }
+      return new Leaf(chars);
+    }
+    // the halves are balanced, no need to go through concat()
+    final int middle = start + (length >> 1);
+    return new Composite(build(text, start, middle), build(text, middle, end));
+  }
+
+  @Override
+  public int length() {
+    return myRoot.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length:" + length());
+    }
+    LeafRef last = myLastLeaf;
+    if (last == null || index < last.offset || index >= last.offset + last.leaf.myChars.length) {
+      myLastLeaf = last = findLeaf(index);
+    }
+    return last.leaf.myChars[index - last.offset];
+  }
+
+  @NotNull
+  private LeafRef findLeaf(int index) {
+    Node node = myRoot;
+    int offset = 0;
+    while (node instanceof Composite) {
+      final Composite composite = (Composite)node;
+      final int headLength = composite.myHead.length();
+      if (index < offset + headLength) {
+        node = composite.myHead;
+      }
+      else {
+        offset += headLength;
+        node = composite.myTail;
+      }
+    }
+    return new LeafRef((Leaf)node, offset);
+  }
+
+  @NotNull
+  @Override
+  public ImmutableText subSequence(int start, int end) {
+    return subtext(start, end);
+  }
+
+  @NotNull
+  public ImmutableText subtext(int start, int end) {
+    checkRange(start, end);
+    if (start == 0 && end == length()) return this;
+    if (start == end) return EMPTY;
+    return new ImmutableText(myRoot.subNode(start, end));
+  }
+
+  @NotNull
+  public ImmutableText concat(@NotNull ImmutableText text) {
+    if (text.length() == 0) return this;
+    if (length() == 0) return text;
+    return new ImmutableText(concatNodes(myRoot, text.myRoot));
+  }
+
+  @NotNull
+  public ImmutableText insert(int index, @NotNull CharSequence text) {
+    checkRange(index, index);
+    if (text.length() == 0) return this;
+    return subtext(0, index).concat(valueOf(text)).concat(subtext(index, length()));
+  }
+
+  @NotNull
+  public ImmutableText delete(int start, int end) {
+    checkRange(start, end);
+    if (start == end) return this;
+    return subtext(0, start).concat(subtext(end, length()));
+  }
+
+  @NotNull
+  public ImmutableText replace(int start, int end, @NotNull CharSequence text) {
+    checkRange(start, end);
+    if (start == 0 && end == length()) return valueOf(text);
+    return subtext(0, start).concat(valueOf(text)).concat(subtext(end, length()));
+  }
+
+  /**
+   * Copies chars in the given range into the destination array.
+   */
+  public void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+    checkRange(start, end);
+    if (start < end) {
+      myRoot.getChars(start, end, dest, destPos);
+    }
+  }
+
+  @NotNull
+  public char[] toCharArray() {
+    final char[] chars = new char[length()];
+    getChars(0, chars.length, chars, 0);
+    return chars;
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    return new String(toCharArray());
+  }
+
+  private void checkRange(int start, int end) {
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("Wrong range: " + start + "-" + end + "; length:" + length());
+    }
+  }
+
+  // Keeps the tree balanced: neither of the children of a composite is more than twice longer than the other one.
+  @NotNull
+  private static Node concatNodes(@NotNull Node node1, @NotNull Node node2) {
+    final int length = node1.length() + node2.length();
+    if (length <= BLOCK_SIZE) {
+      final char[] chars = new char[length];
+      node1.getChars(0, node1.length(), chars, 0);
+      node2.getChars(0, node2.length(), chars, node1.length());
+      return new Leaf(chars);
+    }
+
+    Node head = node1;
+    Node tail = node2;
+    if (head.length() << 1 < tail.length() && tail instanceof Composite) {
+      // head is too short, returns (head + tail.head) + tail.tail
+      if (((Composite)tail).myHead.length() > ((Composite)tail).myTail.length()) {
+        tail = ((Composite)tail).rotateRight();
+      }
+      head = concatNodes(head, ((Composite)tail).myHead);
+      tail = ((Composite)tail).myTail;
+    }
+    else if (tail.length() << 1 < head.length() && head instanceof Composite) {
+      // tail is too short, returns head.head + (head.tail + tail)
+      if (((Composite)head).myTail.length() > ((Composite)head).myHead.length()) {
+        head = ((Composite)head).rotateLeft();
+      }
+      tail = concatNodes(((Composite)head).myTail, tail);
+      head = ((Composite)head).myHead;
+    }
+    return new Composite(head, tail);
+  }
+
+  private abstract static class Node {
+    abstract int length();
+
+    @NotNull
+    abstract Node subNode(int start, int end);
+
+    abstract void getChars(int start, int end, @NotNull char[] dest, int destPos);
+  }
+
+  private static final class Leaf extends Node {
+    private final char[] myChars;
+
+    private Leaf(@NotNull char[] chars) {
+      myChars = chars;
+    }
+
+    @Override
+    int length() {
+      return myChars.length;
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myChars.length) return this;
+      final char[] chars = new char[end - start];
+      System.arraycopy(myChars, start, chars, 0, chars.length);
+      return new Leaf(chars);
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      System.arraycopy(myChars, start, dest, destPos, end - start);
+    }
+  }
+
+  private static final class Composite extends Node {
+    private final Node myHead;
+    private final Node myTail;
+    private final int myLength;
+
+    private Composite(@NotNull Node head, @NotNull Node tail) {
+      myHead = head;
+      myTail = tail;
+      myLength = head.length() + tail.length();
+    }
+
+    @Override
+    int length() {
+      return myLength;
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myLength) return this;
+      final int headLength = myHead.length();
+      if (end <= headLength) return myHead.subNode(start, end);
+      if (start >= headLength) return myTail.subNode(start - headLength, end - headLength);
+      return concatNodes(myHead.subNode(start, headLength), myTail.subNode(0, end - headLength));
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      final int headLength = myHead.length();
+      if (start < headLength) {
+        final int headEnd = Math.min(end, headLength);
+        myHead.getChars(start, headEnd, dest, destPos);
+        destPos += headEnd - start;
+      }
+      if (end > headLength) {
+        myTail.getChars(Math.max(start - headLength, 0), end - headLength, dest, destPos);
+      }
+    }
+
+    // (A + B) + C -> A + (B + C)
+    @NotNull
+    private Node rotateRight() {
+      if (!(myHead instanceof Composite)) return this;
+      final Composite head = (Composite)myHead;
+      return new Composite(head.myHead, new Composite(head.myTail, myTail));
+    }
+
+    // A + (B + C) -> (A + B) + C
+    @NotNull
+    private Node rotateLeft() {
+      if (!(myTail instanceof Composite)) return this;
+      final Composite tail = (Composite)myTail;
+      return new Composite(new Composite(myHead, tail.myHead), tail.myTail);
+    }
+  }
+
+  private static final class LeafRef {
+    private final Leaf leaf;
+    private final int offset;
+
+    private LeafRef(@NotNull Leaf leaf, int offset) {
+      this.leaf = leaf;
+      this.offset = offset;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class OffHeapLruCacheTest extends TestCase {
+  public void testVersionsAndEviction() {
+    OffHeapLruCache<String> cache = new OffHeapLruCache<String>(800);
+    byte[] data = new byte[120];
+    for (int i = 0; i < data.length; i++) data[i] = (byte)i;
+
+    cache.put("a", 1, data, 10, 100);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(data, 10, 110), cache.get("a", 1)));
+    assertNull(cache.get("a", 2)); // outdated entry is dropped
+    assertNull(cache.get("a", 1));
+
+    for (int i = 0; i < 9; i++) {
+      cache.put("k" + i, 0, data, 0, 100);
+      assertNotNull(cache.get("k0", 0)); // the first entry is kept by the access
+    }
+    assertNull(cache.get("k1", 0));
+    assertNotNull(cache.get("k8", 0));
+
+    cache.put("big", 0, data, 0, 101);
+    assertNull(cache.get("big", 0));
+
+    OffHeapLruCache.Statistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.evictions);
+    assertEquals(8, statistics.entries);
+    assertEquals(800, statistics.size);
+    assertEquals(11, statistics.hits);
+    assertEquals(4, statistics.misses);
+
+    cache.clear();
+    assertEquals(0, cache.getStatistics().size);
+  }
+}
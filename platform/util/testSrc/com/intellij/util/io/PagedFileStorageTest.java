@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -84,6 +84,41 @@ public class PagedFileStorageTest extends TestCase {
     }
   }
 
+  public void testOwnPageCacheStatistics() throws IOException {
+    int pageSize = PagedFileStorage.BUFFER_SIZE;
+    int pageCount = 2;
+    // only one page fits into the cache, so mapping a page evicts the other one
+    PagedFileStorage.StorageLock ownLock = new PagedFileStorage.StorageLock(true, pageSize);
+    File file = FileUtil.createTempFile("storage", ".tmp");
+    ownLock.lock();
+    try {
+      PagedFileStorage storage = new PagedFileStorage(file, ownLock);
+      try {
+        // filling the new pages with zeros maps each of them once
+        storage.resize(pageCount * pageSize);
+        // each access switches to the page evicted before
+        storage.putInt(0, 1);
+        storage.putInt(pageSize, 2);
+        assertEquals(1, storage.getInt(0));
+        int accessCount = 3;
+
+        PagedFileStorage.CacheStatistics statistics = ownLock.getStatistics();
+        assertEquals(pageCount + accessCount, statistics.misses);
+        assertEquals(accessCount, statistics.remaps);
+        // every mapping but the first one evicts a page
+        assertEquals(pageCount + accessCount - 1, statistics.evictions);
+        assertEquals(pageSize, statistics.mappedSize);
+      }
+      finally {
+        storage.close();
+      }
+    }
+    finally {
+      ownLock.unlock();
+      assert file.delete() : file.getPath();
+    }
+  }
+
   public void testResizeableMappedFile() throws Exception {
     lock.lock();
     try {
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+public class RefCountingStorageTest extends TestCase {
+  private RefCountingStorage myStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myStorage = new RefCountingStorage(getFileName());
+  }
+
+  private String getFileName() {
+    return FileUtil.getTempDirectory() + File.separatorChar + getName();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Disposer.dispose(myStorage);
+    AbstractStorage.deleteFiles(getFileName());
+    super.tearDown();
+  }
+
+  public void testReadByteSequence() throws Exception {
+    Random random = new Random(42);
+    for (int length : new int[]{1, 255, 256, 257, 1000, 100000}) {
+      byte[] data = new byte[length];
+      for (int i = 0; i < length; i++) {
+        data[i] = (byte)('a' + random.nextInt(random.nextBoolean() ? 2 : 26));
+      }
+      int record = myStorage.acquireNewRecord();
+      myStorage.writeBytes(record, new ByteSequence(data), false);
+
+      // the exact length: the data fills the buffer, which is returned as is
+      ByteSequence sequence = myStorage.readByteSequence(record, length);
+      assertEquals(length, sequence.getLength());
+      assertEquals(length, sequence.getBytes().length);
+      assertTrue(Arrays.equals(data, toBytes(sequence)));
+
+      for (int expectedLength : new int[]{0, 1, length / 2, length - 1, length + 1, length * 2}) {
+        sequence = myStorage.readByteSequence(record, expectedLength);
+        assertTrue(length + " read with " + expectedLength, Arrays.equals(data, toBytes(sequence)));
+      }
+      assertTrue(Arrays.equals(data, myStorage.readBytes(record)));
+    }
+  }
+
+  private static byte[] toBytes(ByteSequence sequence) {
+    return Arrays.copyOfRange(sequence.getBytes(), sequence.getOffset(), sequence.getOffset() + sequence.getLength());
+  }
+}
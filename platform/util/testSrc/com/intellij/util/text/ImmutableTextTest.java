@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.openapi.util.text.StringUtil;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ImmutableTextTest extends TestCase {
+  public void testRandomEdits() {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder(StringUtil.repeat("0123456789\n", 1000));
+    ImmutableText text = ImmutableText.valueOf(expected.toString());
+    for (int i = 0; i < 20000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      int end = Math.min(expected.length(), start + random.nextInt(20));
+      String inserted = StringUtil.repeat(String.valueOf((char)('a' + random.nextInt(26))), random.nextInt(1200));
+      switch (random.nextInt(3)) {
+        case 0:
+          text = text.insert(start, inserted);
+          expected.insert(start, inserted);
+          break;
+        case 1:
+          text = text.delete(start, end);
+          expected.delete(start, end);
+          break;
+        default:
+          text = text.replace(start, end, inserted);
+          expected.replace(start, end, inserted);
+      }
+      assertEquals(expected.length(), text.length());
+      if (i % 1000 == 0) {
+        assertEquals(expected.toString(), text.toString());
+      }
+    }
+    assertEquals(expected.toString(), text.toString());
+    for (int i = 0; i < expected.length(); i += 7) {
+      assertEquals(expected.charAt(i), text.charAt(i));
+    }
+    int start = expected.length() / 3;
+    assertEquals(expected.substring(start, 2 * start), text.subtext(start, 2 * start).toString());
+  }
+
+  public void testSnapshotIsNotChanged() {
+    ImmutableText text = ImmutableText.valueOf("abcdef");
+    ImmutableText snapshot = text;
+    text = text.insert(3, "XYZ").delete(0, 1);
+    assertEquals("bcXYZdef", text.toString());
+    assertEquals("abcdef", snapshot.toString());
+  }
+
+  public void testEditLatencyDoesNotDependOnTextSize() {
+    long small = measureEdits(7);
+    long large = measureEdits(16);
+    assertTrue(small + " vs " + large, large < 10 * Math.max(small, 10));
+  }
+
+  private static long measureEdits(int doublings) {
+    // the doubled text shares its halves, so even the large one takes little memory
+    ImmutableText text = ImmutableText.valueOf(StringUtil.repeatSymbol('a', 1000));
+    for (int i = 0; i < doublings; i++) {
+      text = text.concat(text);
+    }
+    int size = text.length();
+    long started = System.currentTimeMillis();
+    for (int i = 0; i < 10000; i++) {
+      text = text.insert(1000 + i, "x");
+      if (i % 2 == 0) text = text.delete(10, 11);
+    }
+    assertEquals(size + 5000, text.length());
+    return System.currentTimeMillis() - started;
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2012 JetBrains s.r.o.
+ * Copyright 2000-2013 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -63,16 +63,12 @@ public class GrStubUtils {
   }
 
   public static void writeNullableString(StubOutputStream dataStream, @Nullable String typeText) throws IOException {
-    dataStream.writeBoolean(typeText != null);
-    if (typeText != null) {
-      dataStream.writeUTFFast(typeText);
-    }
+    dataStream.writeName(typeText);
   }
 
   @Nullable
   public static String readNullableString(StubInputStream dataStream) throws IOException {
-    final boolean hasTypeText = dataStream.readBoolean();
-    return hasTypeText ? dataStream.readUTFFast() : null;
+    return dataStream.readNameString();
   }
 
   @Nullable